@@ -0,0 +1,43 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * BatchProcess.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server;
+
+import java.util.List;
+import lexa.core.data.DataSet;
+import lexa.core.process.ProcessException;
+
+/**
+ * A process that can handle many requests in one go.
+ * <p>A {@link lexa.core.process.LexaProcess} that also implements this interface
+ * can be run by its {@link ProcessAgent} in batch mode; the agent gathers the
+ * requests and passes them over together, rather than one at a time through
+ * the process's state machine.  This suits processes that front a database or
+ * another broker, where one round trip for many requests costs much the same
+ * as one for a single request.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public interface BatchProcess
+{
+	/**
+	 * Handle a batch of requests.
+	 *
+	 * @param   requests
+	 *          the {@code request} block of each message, in the order received.
+	 * @return  the {@code reply} block for each request, in the same order;
+	 *          a {@code null} reply is returned to the caller as an error.
+	 * @throws  ProcessException
+	 *          when the batch cannot be handled; every request in it is returned
+	 *          to its caller as an error.
+	 */
+	public List<DataSet> handleBatch(List<DataSet> requests)
+			throws ProcessException;
+}
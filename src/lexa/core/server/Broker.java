@@ -9,17 +9,23 @@
  */
 package lexa.core.server;
 
+import java.util.Collection;
 import lexa.core.process.ProcessException;
+import lexa.core.server.messaging.Envelope;
 import lexa.core.server.messaging.MessagingCaller;
 import lexa.core.server.messaging.MessagingContainer;
+import lexa.core.server.messaging.MessagingContainerFactory;
+import lexa.core.data.ArrayDataSet;
 import lexa.core.data.config.ConfigDataSet;
 import lexa.core.data.DataSet;
 import lexa.core.data.exception.DataException;
 import lexa.core.expression.ExpressionException;
 import lexa.core.expression.function.FunctionLibrary;
 import lexa.core.logging.Logger;
+import lexa.core.server.connection.BrokerListener;
 import lexa.core.server.connection.Connection;
 import lexa.core.server.connection.ConnectionList;
+import lexa.core.server.connection.MessageTimer;
 import lexa.core.server.context.*;
 import lexa.core.server.messaging.MessagingStatus;
 
@@ -33,14 +39,28 @@ import lexa.core.server.messaging.MessagingStatus;
  * <pre>
  * name &lt;brokerName&gt;
  * [type &lt;threadModel&gt;]
+ * [batchSize &lt;batchSize&gt;]
+ * [poolSize &lt;poolSize&gt;]
+ * [poolList {
+ *   &lt;poolName&gt; &lt;poolSize&gt;
+ * }]
  * [wildcard &lt;wildcardService&gt;]
  * [timeout &lt;timeout&gt;]
  * [brokerList {
  *   &lt;connectionName&gt; {
  *     ipAddress &lt;ipAddress&gt;
  *     port % &lt;port&gt;
+ *     [codec &lt;codec&gt;]
+ *     [sessions &lt;sessions&gt;]
+ *     [window % &lt;window&gt;]
+ *     [resend ? &lt;resend&gt;]
+ *     [retries % &lt;retries&gt;]
  *   }
  * }
+ * [listener {
+ *   port % &lt;listenPort&gt;
+ *   [selectors % &lt;selectors&gt;]
+ * }]
  * [logging {
  *   &lt;logging config&gt; {
  * }]
@@ -54,8 +74,14 @@ import lexa.core.server.messaging.MessagingStatus;
  * <p>Where:
  * <dl>
  * <dt>&lt;brokerName&gt;</dt><dd>a unique name for the message broker.</dd>
- * <dt>&lt;threadModel&gt;</dt><dd>indicate if the broker is run {@code inline} or {@code async};
- *		default is {@code async}</dd>
+ * <dt>&lt;threadModel&gt;</dt><dd>indicate if the broker is run {@code inline}, {@code async},
+ *		{@code batch}, {@code pooled} or {@code virtual}; default is {@code async}</dd>
+ * <dt>&lt;batchSize&gt;</dt><dd>the maximum number of messages a {@code batch}, {@code pooled}
+ *		or {@code virtual} container moves in each direction per wake up; default is 64.</dd>
+ * <dt>&lt;poolSize&gt;</dt><dd>the number of threads shared by {@code pooled} containers;
+ *		default is the number of processors; see {@link MessagingContainerFactory}.</dd>
+ * <dt>&lt;poolName&gt;</dt><dd>a named pool that services and processes can be run on
+ *		to keep them apart from the rest of the broker.</dd>
  * <dt>&lt;wildcardService&gt;</dt><dd>the name of a service in the service list;
  *      unknown services are rerouted to this service. [optional]</dd>
  * <dt>&lt;timeout&gt;</dt><dd>period in milliseconds after which messages will expire
@@ -65,6 +91,24 @@ import lexa.core.server.messaging.MessagingStatus;
  *      the name "{@code local}" may not be used.</dd>
  * <dt>&lt;ipAddress&gt;</dt><dd>the IP address for a remote message broker.</dd>
  * <dt>&lt;port&gt;</dt><dd>the port for a remote message broker.</dd>
+ * <dt>&lt;codec&gt;</dt><dd>{@code binary} to agree the compact wire codec with the remote
+ *      broker, falling back to the original format, or {@code legacy};
+ *      [optional; default is {@code binary}]</dd>
+ * <dt>&lt;sessions&gt;</dt><dd>the number of sockets shared by all the connections to a
+ *      remote broker using the binary codec. [optional; default is 1]</dd>
+ * <dt>&lt;window&gt;</dt><dd>the most messages each connection to a remote broker has in
+ *      flight before later ones wait. [optional; default is 256]</dd>
+ * <dt>&lt;resend&gt;</dt><dd>{@code true} to resend the messages in flight after
+ *      reconnecting to a remote broker, or {@code false} to fail them.
+ *      [optional; default is {@code true}]</dd>
+ * <dt>&lt;retries&gt;</dt><dd>the attempts to reconnect to a remote broker before the
+ *      messages are failed, with a growing delay between attempts.
+ *      [optional; default is 5]</dd>
+ * <dt>&lt;listenPort&gt;</dt><dd>the port on which the broker accepts sessions from
+ *      remote brokers and clients using the binary codec; see {@link BrokerListener}.
+ *      [optional; by default the broker does not listen]</dd>
+ * <dt>&lt;selectors&gt;</dt><dd>the number of threads serving the accepted sessions.
+ *      [optional; default is 2]</dd>
  * <dt>&lt;logging config&gt;</dt><dd>the configuration for the logging service;
  *      see {@link lexa.core.logging.LogLevels}</dd>
  * <dt>&lt;serviceName&gt;</dt><dd>a unique name within the broker for a service;
@@ -72,6 +116,8 @@ import lexa.core.server.messaging.MessagingStatus;
  * <dt>&lt;service config&gt;</dt><dd>the configuration for the service;
  *      see {@link Service}.</dd>
  * </dl>
+ * <p>A broker created from the configuration data can be reloaded while it is
+ * running; see {@link #reload(DataSet)}.
  *
  * @author William
  * @since 2014-04
@@ -79,6 +125,11 @@ import lexa.core.server.messaging.MessagingStatus;
 public class Broker
 		implements MessagingCaller
 {
+	/** the settings that {@link #reload(DataSet)} cannot change */
+	private static final String[] RESTART_SETTINGS = {
+		Config.TYPE, Config.BATCH_SIZE, Config.POOL_SIZE, Config.POOL_LIST,
+		Config.TIMEOUT, Config.BROKER_LIST, Config.LISTENER, Config.LOGGING
+	};
     /** Narrative name */
     private final String name;
     /** logger for events */
@@ -87,6 +138,14 @@ public class Broker
 	private final MessagingContainer handler;
 	/** a list of connection destinations */
 	private final ConnectionList connectionList;
+	/** Factory for the handler containers */
+	private final MessagingContainerFactory containerFactory;
+	/** Expiry service for messages in flight */
+	private final MessageTimer timer;
+	/** Library of functions for config driven processes */
+	private final FunctionLibrary functionLibrary;
+	/** Accepts sessions from clients; {@code null} if the broker does not listen */
+	private final BrokerListener listener;
 
     /**
      * Create a new message broker from the supplied config.
@@ -122,7 +181,58 @@ public class Broker
     public Broker(ConfigDataSet config, FunctionLibrary functionLibrary)
 			throws DataException, ProcessException, ExpressionException
 	{
+        this(config, null, functionLibrary);
+    }
+    /**
+     * Create a new message broker from the supplied configuration data.
+     * <p>The data is kept so that the broker can be reloaded.
+     *
+     * @param   config
+     *          the configuration data for the message broker.
+     * @param   functionLibrary
+     *          a library of functions to use for config driven processes.
+     * @throws  DataException
+     *          when there is a problem in the configuration.
+     * @throws  ProcessException
+     *          when an exception occurs within the processes.
+	 * @throws  ExpressionException
+	            when an exception occurs within an expression.
+     */
+    public Broker(DataSet config, FunctionLibrary functionLibrary)
+			throws DataException, ProcessException, ExpressionException
+	{
+        this(new ConfigDataSet(config), config, functionLibrary, true);
+    }
+    /**
+     * Create a new message broker from the supplied config and the data behind it.
+     * <p>The data is kept so that the broker can be reloaded; the config is left
+     * for the caller to close.
+     *
+     * @param   config
+     *          the configuration for the message broker.
+     * @param   definition
+     *          the configuration data behind the config.
+     * @param   functionLibrary
+     *          a library of functions to use for config driven processes.
+     * @throws  DataException
+     *          when there is a problem in the configuration.
+     * @throws  ProcessException
+     *          when an exception occurs within the processes.
+	 * @throws  ExpressionException
+	            when an exception occurs within an expression.
+     */
+    public Broker(ConfigDataSet config, DataSet definition, FunctionLibrary functionLibrary)
+			throws DataException, ProcessException, ExpressionException
+	{
+        this(config, definition, functionLibrary, false);
+    }
+
+    private Broker(ConfigDataSet config, DataSet definition, FunctionLibrary functionLibrary,
+            boolean closeConfig)
+			throws DataException, ProcessException, ExpressionException
+	{
         this.name = config.getString(Config.NAME);
+        this.functionLibrary = functionLibrary;
         this.logger = new Logger(Broker.class.getSimpleName() , this.name);
 		ConfigDataSet loggingConfig = config.contains(Config.LOGGING) ?
                 config.getDataSet(Config.LOGGING) :
@@ -132,35 +242,25 @@ public class Broker
             loggingConfig.close();
         }
 
-		Boolean inline = false;
-		if (config.contains(Config.TYPE))
-		{
-			switch (config.getString(Config.TYPE))
-			{
-				case Value.TYPE_INLINE :
-				{
-					inline = true;
-					break;
-				}
-				case Value.TYPE_ASYNC :
-				{
-					break; // already false
-				}
-				default :
-				{
-					throw new DataException("Broker type is not \"inline\" or \"async\"");
-				}
-			}
-		}
-		this.handler = BrokerHandler.container(config, functionLibrary, inline);
+		this.containerFactory = new MessagingContainerFactory(config);
+		this.handler = BrokerHandler.container(config, definition, functionLibrary, this.containerFactory);
 
 		ConfigDataSet brokerList = (config.contains(Config.BROKER_LIST)) ?
 				config.getDataSet(Config.BROKER_LIST) :
 				null;
-		this.connectionList = new ConnectionList(brokerList);
+		this.timer = new MessageTimer(this.name,
+				config.get(Config.TIMEOUT, Value.DEFAULT_TIMEOUT).getInteger(),
+				Value.TIMER_TICK);
+		this.connectionList = new ConnectionList(brokerList, this.timer);
 		if (brokerList != null) {
 			brokerList.close();
 		}
+		this.listener = config.contains(Config.LISTENER) ?
+				new BrokerListener(this.name, config.getDataSet(Config.LISTENER), this.connectionList) :
+				null;
+		if (closeConfig) {
+			config.close();
+		}
 
         this.logger.info("Initialised message broker " + this.name);
     }
@@ -171,9 +271,56 @@ public class Broker
         this.logger.info("starting");
 		this.connectionList.setBroker(this);
 		this.handler.start(this);
+		this.timer.start();
+		if (this.listener != null) {
+			this.listener.start();
+		}
 		this.logger.info("started");
 	}
 
+    /**
+     * Reload the services while the broker is running.
+     * <p>Only the {@code serviceList} and {@code wildcard} are reloaded; the
+     * thread model, pools, timeout and broker list need a restart.  Services and
+     * processes whose configuration is unchanged keep running; new ones are built
+     * and started before the routing is switched over, so no message is refused
+     * during the reload.  Messages already with a retired service or process
+     * are left to finish.
+     * <p>If the broker was not created from configuration data every service is
+     * rebuilt.  The name must match the running broker; any other setting that
+     * needs a restart is logged and left as it is.
+     *
+     * @param   config
+     *          the new configuration data for the message broker.
+     * @throws  DataException
+     *          when there is a problem in the configuration; the running
+     *          services are left in place.
+     * @throws  ProcessException
+     *          when an exception occurs within the processes.
+	 * @throws  ExpressionException
+     *          when an exception occurs within an expression.
+     */
+    public void reload(DataSet config)
+			throws DataException, ProcessException, ExpressionException
+    {
+        this.logger.info("reloading");
+        DataSet reloadData = new ArrayDataSet(config);
+        for (String restart : Broker.RESTART_SETTINGS) {
+            if (reloadData.contains(restart)) {
+                reloadData.remove(restart);
+                this.logger.info("reload leaves " + restart + " until a restart");
+            }
+        }
+        ConfigDataSet reloadConfig = new ConfigDataSet(reloadData);
+        if (!this.name.equals(reloadConfig.getString(Config.NAME))) {
+            throw new DataException("Config name does not match the broker: " +
+                    reloadConfig.getString(Config.NAME) + "@" + this.name);
+        }
+        ((BrokerHandler)this.handler.getHandler()).reload(
+                reloadConfig, config, this.functionLibrary, this.containerFactory);
+        reloadConfig.close();
+    }
+
     @Override
     public MessagingStatus getStatus()
     {
@@ -210,7 +357,7 @@ public class Broker
      *
      * @link MessageBroker#MessageBroker(lexa.core.data.config.ConfigDataSet) MessageBroker(ConfigDataSet config)
      */
-    Connection getConnection(String connectionName)
+    public Connection getConnection(String connectionName)
             throws ProcessException {
 		Connection connection = this.connectionList.newConnection(connectionName);
         this.logger.info("new connection " + connection.getId() + " to " + connectionName);
@@ -222,12 +369,23 @@ public class Broker
         this.logger.info("closing");
 		//this.connectionList.setBroker(null);
 		//this.brokerHandler.close();
+		if (this.listener != null) {
+			this.listener.close();
+		}
+		this.timer.close();
+		this.containerFactory.close();
 		this.logger.info("closed");
 	}
 
-	public void inbound(DataSet data)
+	public void inbound(Envelope envelope)
 	{
-		this.handler.inbound(data);
+		this.handler.inbound(envelope);
+	}
+
+	@Override
+	public void inboundAll(Collection<Envelope> envelopes)
+	{
+		this.handler.inboundAll(envelopes);
 	}
 
     /**
@@ -239,26 +397,15 @@ public class Broker
      * @param   message
      *          the message being sent back to the caller.
      */
-    public void outbound(DataSet message) {
-        this.logger.message("MESSAGE_IO", "outbound" ,message,null);
-        Integer cid = message.getInteger(Context.CONNECTION_ID);
-        Integer sid = message.getInteger(Context.SOURCE_ID);
-        Connection connection = this.connectionList.getConnection(cid);
+    public void outbound(Envelope message) {
+        this.logger.message("MESSAGE_IO", "outbound " + message, null, null);
+        Connection connection = this.connectionList.getConnection(message.getConnectionId());
+        if (connection == null) {
+            // a client's session has closed
+            return;
+        }
+        // the connection stops the message's timeout when it closes
         connection.reply(message);
-//        // remove from the list of messages
-//        for (int id = 0;
-//                id < this.receivedTimes.size();
-//                id++) {
-//            MessageKey mk = this.receivedTimes.get(id);
-//            if (mk.connection == cid) {
-//                if (mk.session == sid) {
-//                    this.receivedTimes.remove(id);
-//                    break;
-//                } else if (mk.session > sid) {
-//                    break;
-//                }
-//            }
-//        }
     }
 
 }
@@ -11,6 +11,7 @@ package lexa.core.server;
 
 import java.util.*;
 import lexa.core.data.config.ConfigDataSet;
+import lexa.core.data.DataArray;
 import lexa.core.data.DataSet;
 import lexa.core.data.DataType;
 import lexa.core.data.config.ConfigDataArray;
@@ -31,6 +32,10 @@ import lexa.core.server.messaging.*;
 public class BrokerHandler
 		implements MessagingHandler
 {
+	/** the service settings that the containers of its processes inherit */
+	private static final String[] THREAD_SETTINGS = {
+		Config.TYPE, Config.BATCH_SIZE, Config.POOL
+	};
 
     private final MessagingStatus status;
 
@@ -40,31 +45,31 @@ public class BrokerHandler
         return this.status;
     }
 
-	public static MessagingContainer container(ConfigDataSet config, FunctionLibrary functionLibrary, boolean inline)
+	public static MessagingContainer container(ConfigDataSet config, DataSet definition, FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory)
 			throws DataException, ProcessException, ExpressionException
 	{
-		BrokerHandler handler = new BrokerHandler(config, functionLibrary, inline);
+		BrokerHandler handler = new BrokerHandler(config, definition, functionLibrary, containerFactory);
 
-		return inline ?
-				new MessagingContainerInline(handler) :
-				new MessagingContainerAsync(handler);
+		return containerFactory.container(handler);
 	}
     /** logger for events */
     private final Logger logger;
-	/** times for messages being received */
-    private final ArrayList<MessageKey> receivedTimes;
     /** Wildcard service for re-routing unknown messages */
-    private final String wildcard;
-    /** Timeout period for expiring messages */
-    private final int timeout;
+    private volatile String wildcard;
     /** The available services */
-    private final Map<String, MessagingContainer> services;
+    private volatile Map<String, MessagingContainer> services;
+    /** The definition of each service, used to find what a reload changes */
+    private Map<String, DataSet> definitions;
+    /** The routes to the processes, compiled when the broker starts */
+    private volatile RoutingTable<Route> routes;
+    /** Loader for the process classes */
+    private final ClassLoader classLoader;
 	private boolean running;
 	private MessagingContainer container;
 	private final String name;
 	private Broker broker;
 
-	private BrokerHandler(ConfigDataSet config, FunctionLibrary functionLibrary, boolean inline)
+	private BrokerHandler(ConfigDataSet config, DataSet definition, FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory)
 			throws DataException, ProcessException, ExpressionException
 	{
         // check we have the correct types
@@ -77,37 +82,226 @@ public class BrokerHandler
         this.status=new MessagingStatus(this.name);
 		this.wildcard = config.get(Config.WILDCARD,null).getString();
 
-        this.timeout = config
-                .get(Config.TIMEOUT,Value.DEFAULT_TIMEOUT)
-                .getInteger();
-        this.receivedTimes = new ArrayList();
-
 		// if needed we can always get a URLClassLoader to allow
 		// the explicit listing of jars to load.
-		ClassLoader cl = ClassLoader.getSystemClassLoader();
+		this.classLoader = ClassLoader.getSystemClassLoader();
         // create the services list
         this.services = new HashMap();
+        this.definitions = new HashMap<>();
+        Map<String, MessagingContainer> loaded = new HashMap<>();
+        Map<String, DataSet> loadedDefinitions = new HashMap<>();
+        this.loadServices(config, definition, functionLibrary, containerFactory,
+                loaded, loadedDefinitions);
+        for (MessagingContainer sc : loaded.values()) {
+            this.status.addChild(sc.getHandler().getStatus());
+        }
+        this.services = loaded;
+        this.definitions = loadedDefinitions;
+
+        if (this.wildcard != null && !this.services.containsKey(this.wildcard)) {
+            throw new DataException("Config missing wildcard service: " + this.wildcard + "@" + name);
+        }
+	}
+
+    /**
+     * Load the services from the configuration.
+     * <p>A service whose definition has not changed since the last load is
+     * reused as it is.  A changed service is built again, reusing any of its
+     * processes whose definitions have not changed.
+     *
+     * @param   config
+     *          the configuration for the message broker.
+     * @param   definition
+     *          the data behind the configuration; or {@code null} if it is not
+     *          known, in which case nothing is reused.
+     * @param   functionLibrary
+     *          a library of functions to use for config driven processes.
+     * @param   containerFactory
+     *          the factory for the service containers.
+     * @param   loaded
+     *          receives the service containers by name.
+     * @param   loadedDefinitions
+     *          receives the service definitions by name.
+     * @return  the service containers that are new and need starting.
+     * @throws  DataException
+     *          when there is a problem in the configuration.
+     * @throws  ProcessException
+     *          when an exception occurs within the processes.
+     * @throws  ExpressionException
+     *          when an exception occurs within an expression.
+     */
+    private List<MessagingContainer> loadServices(ConfigDataSet config, DataSet definition,
+            FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory,
+            Map<String, MessagingContainer> loaded, Map<String, DataSet> loadedDefinitions)
+            throws DataException, ProcessException, ExpressionException
+    {
+        List<MessagingContainer> created = new ArrayList<>();
         ConfigDataArray serviceList = config.getArray(Config.SERVICE_LIST);
+        DataArray serviceDefinitions = definition == null ?
+                null :
+                definition.getArray(Config.SERVICE_LIST);
         for (int v=0; v <serviceList.size(); v++)
 		{
             ConfigDataSet serviceConfig = serviceList.get(v).getDataSet();
             serviceConfig.validateType(Config.NAME, DataType.STRING);
             String sn = serviceConfig.getString(Config.NAME);
-            if (this.services.containsKey(sn))
+            if (loaded.containsKey(sn))
 			{
                 throw new DataException("Config contains duplicate service: " + sn + "@" + name);
             }
-            MessagingContainer sc = Service.container(cl, serviceConfig, functionLibrary, inline);
-			this.services.put(sn, sc);
-            this.status.addChild(sc.getHandler().getStatus());
+            DataSet serviceDefinition = serviceDefinitions == null ?
+                    null :
+                    serviceDefinitions.get(v).getDataSet();
+            MessagingContainer current = this.services.get(sn);
+            DataSet currentDefinition = this.definitions.get(sn);
+            MessagingContainer sc;
+            if (current != null && serviceDefinition != null &&
+                    serviceDefinition.equals(currentDefinition))
+            {
+                sc = current;
+            }
+            else
+            {
+                sc = Service.container(this.classLoader, serviceConfig, functionLibrary, containerFactory,
+                        this.unchangedProcesses(current, currentDefinition, serviceDefinition));
+                created.add(sc);
+            }
+			loaded.put(sn, sc);
+            if (serviceDefinition != null) {
+                loadedDefinitions.put(sn, serviceDefinition);
+            }
             serviceConfig.close();
         }
         serviceList.close();
+        return created;
+    }
 
-        if (this.wildcard != null && !this.services.containsKey(this.wildcard)) {
-            throw new DataException("Config missing wildcard service: " + this.wildcard + "@" + name);
+    /**
+     * Find the running processes of a service that a new definition leaves unchanged.
+     * <p>The processes inherit the thread model of the service, so none are
+     * reused if the service's {@code type}, {@code batchSize} or {@code pool}
+     * has changed.
+     *
+     * @param   current
+     *          the running service container; or {@code null} for a new service.
+     * @param   currentDefinition
+     *          the definition of the running service; may be {@code null}.
+     * @param   newDefinition
+     *          the new definition of the service; may be {@code null}.
+     * @return  the process containers to reuse, by name.
+     */
+    private Map<String, MessagingContainer> unchangedProcesses(MessagingContainer current,
+            DataSet currentDefinition, DataSet newDefinition)
+    {
+        Map<String, MessagingContainer> unchanged = new HashMap<>();
+        if (current == null || currentDefinition == null || newDefinition == null) {
+            return unchanged;
         }
-	}
+        for (String setting : BrokerHandler.THREAD_SETTINGS) {
+            if (!Objects.equals(currentDefinition.getObject(setting), newDefinition.getObject(setting))) {
+                return unchanged;
+            }
+        }
+        Map<String, MessagingContainer> running = ((Service)current.getHandler()).getProcesses();
+        Map<String, DataSet> currentProcesses = Service.processDefinitions(currentDefinition);
+        for (Map.Entry<String, DataSet> process : Service.processDefinitions(newDefinition).entrySet()) {
+            if (running.containsKey(process.getKey()) &&
+                    process.getValue().equals(currentProcesses.get(process.getKey()))) {
+                unchanged.put(process.getKey(), running.get(process.getKey()));
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Reload the services from a new configuration.
+     * <p>The new services are built and started beside the running ones and
+     * then the routing is swapped in one step.  The containers of the services
+     * and processes that are no longer configured are then closed; messages
+     * already passed to them are left to finish and reply as normal.
+     *
+     * @param   config
+     *          the new configuration for the message broker.
+     * @param   definition
+     *          the data behind the configuration.
+     * @param   functionLibrary
+     *          a library of functions to use for config driven processes.
+     * @param   containerFactory
+     *          the factory for the service containers.
+     * @throws  DataException
+     *          when there is a problem in the configuration.
+     * @throws  ProcessException
+     *          when an exception occurs within the processes.
+     * @throws  ExpressionException
+     *          when an exception occurs within an expression.
+     */
+    synchronized void reload(ConfigDataSet config, DataSet definition,
+            FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory)
+            throws DataException, ProcessException, ExpressionException
+    {
+        config.validateType(Config.SERVICE_LIST, DataType.ARRAY);
+        String newWildcard = config.get(Config.WILDCARD,null).getString();
+        Map<String, MessagingContainer> loaded = new HashMap<>();
+        Map<String, DataSet> loadedDefinitions = new HashMap<>();
+        List<MessagingContainer> created = this.loadServices(config, definition,
+                functionLibrary, containerFactory, loaded, loadedDefinitions);
+        if (newWildcard != null && !loaded.containsKey(newWildcard)) {
+            throw new DataException("Config missing wildcard service: " + newWildcard + "@" + name);
+        }
+        for (MessagingContainer sc : created) {
+            sc.start(this);
+            this.status.addChild(sc.getHandler().getStatus());
+        }
+        for (MessagingContainer sc : this.services.values()) {
+            if (!loaded.containsValue(sc)) {
+                this.status.removeChild(sc.getHandler().getStatus());
+            }
+        }
+        Map<String, MessagingContainer> previous = this.services;
+        this.definitions = loadedDefinitions;
+        this.services = loaded;
+        this.wildcard = newWildcard;
+        this.routes = BrokerHandler.compileRoutes(loaded, newWildcard);
+        int retired = this.retire(previous, loaded);
+        this.logger.info("reloaded, " + created.size() + " services rebuilt, " +
+                retired + " containers retired");
+    }
+
+    /**
+     * Close the service and process containers that a reload has retired.
+     * <p>A closed container passes on what it has queued and stops its thread;
+     * a reply from a process that is still working is passed on as it arrives.
+     * Processes taken over by a rebuilt service are left running.
+     *
+     * @param   previous
+     *          the service containers before the reload, by name.
+     * @param   loaded
+     *          the service containers after the reload, by name.
+     * @return  the number of containers closed.
+     */
+    private int retire(Map<String, MessagingContainer> previous, Map<String, MessagingContainer> loaded)
+    {
+        Set<MessagingContainer> running = new HashSet<>();
+        for (MessagingContainer sc : loaded.values()) {
+            running.add(sc);
+            running.addAll(((Service)sc.getHandler()).getProcesses().values());
+        }
+        int retired = 0;
+        for (MessagingContainer sc : previous.values()) {
+            if (running.contains(sc)) {
+                continue;
+            }
+            for (MessagingContainer pc : ((Service)sc.getHandler()).getProcesses().values()) {
+                if (!running.contains(pc)) {
+                    pc.close();
+                    retired++;
+                }
+            }
+            sc.close();
+            retired++;
+        }
+        return retired;
+    }
 
 	@Override
 	public void start(MessagingCaller caller, MessagingContainer container)
@@ -118,30 +312,84 @@ public class BrokerHandler
 		for (MessagingContainer s : this.services.values()) {
 			s.start(this);
 		}
+		this.routes = BrokerHandler.compileRoutes(this.services, this.wildcard);
 		this.setRunning(true);
 	}
 
 	@Override
-	public void inbound(DataSet message)
+	public void inbound(Envelope message)
 	{
 		// find out who this belongs to//
-        this.logger.message("MESSAGE_IO", "inbound" ,message,null);
+        this.logger.message("MESSAGE_IO", "inbound " + message, null, null);
         this.status.addReceived();
-		String serviceName = message.getString(Context.SERVICE);
-		MessagingContainer serviceContainer = this.services.get(serviceName);
-        if (serviceContainer == null) {
-            if (this.wildcard != null) {
-                serviceContainer = this.services.get(this.wildcard);
-            }
-            if (serviceContainer == null) {
-                this.status.addError();
-                bounceBack(message, "unknown service");
-                return;
-            }
+		Route route = this.routes.get(
+				message.getService(),
+				message.getMessage());
+        if (route == null) {
+            this.status.addError();
+            bounceBack(message, "unknown service");
+            return;
         }
-        serviceContainer.inbound(message);
+        route.inbound(message);
 	}
 
+    /**
+     * Compile the services and their processes into a routing table.
+     * <p>Every known service and process pair is added up front; any other
+     * pair is resolved through the wildcards the first time it is seen.
+     *
+     * @param   services
+     *          the service containers by name.
+     * @param   wildcard
+     *          the wildcard service; or {@code null} if there is none.
+     * @return  the routing table for the broker.
+     */
+    private static RoutingTable<Route> compileRoutes(Map<String, MessagingContainer> services, String wildcard) {
+        Map<String, Map<String, Route>> known = new HashMap<>();
+        for (Map.Entry<String, MessagingContainer> s : services.entrySet()) {
+            Map<String, Route> processes = new HashMap<>();
+            Service service = (Service)s.getValue().getHandler();
+            for (Map.Entry<String, MessagingContainer> p : service.getProcesses().entrySet()) {
+                processes.put(p.getKey(), new Route(s.getValue(), p.getValue()));
+            }
+            known.put(s.getKey(), processes);
+        }
+        return new RoutingTable<>(known,
+                (serviceName, messageName) ->
+                        BrokerHandler.resolveRoute(services, wildcard, serviceName, messageName),
+                Value.ROUTE_CACHE_SIZE);
+    }
+
+    /**
+     * Resolve a route that is not in the routing table.
+     *
+     * @param   services
+     *          the service containers by name.
+     * @param   wildcard
+     *          the wildcard service; or {@code null} if there is none.
+     * @param   serviceName
+     *          the service name from the message.
+     * @param   messageName
+     *          the message name from the message.
+     * @return  the route for the message; or {@code null} if there is no service.
+     */
+    private static Route resolveRoute(Map<String, MessagingContainer> services, String wildcard,
+            String serviceName, String messageName) {
+        MessagingContainer serviceContainer = services.get(serviceName);
+        if (serviceContainer == null && wildcard != null) {
+            serviceContainer = services.get(wildcard);
+        }
+        if (serviceContainer == null) {
+            return null;
+        }
+        Service service = (Service)serviceContainer.getHandler();
+        MessagingContainer processContainer = service.getProcesses().get(messageName);
+        if (processContainer == null && service.getWildcard() != null) {
+            processContainer = service.getProcesses().get(service.getWildcard());
+        }
+        return new Route(serviceContainer, processContainer);
+    }
+
 	@Override
 	public String getName()
 	{
@@ -155,30 +403,52 @@ public class BrokerHandler
      * @param   returnMessage
      *          a message to return to the caller
      */
-    private void bounceBack(DataSet message, String returnMessage) {
-        this.logger.debug("bounceBack " + returnMessage , message);
-        message
+    private void bounceBack(Envelope message, String returnMessage) {
+        this.logger.debug("bounceBack " + returnMessage , message.getData());
+        message.getData()
 				.put(Context.RETURN, returnMessage)
 				.put(Context.CLOSE, true);
         this.outbound(message);
     }
 
 	@Override
-	public void outbound(DataSet message)
+	public void outbound(Envelope message)
 	{
         this.status.addReplied();
 		this.container.outbound(message);
 	}
 
-    private class MessageKey {
-        private final int connection;
-        private final int session;
-        private final long timestamp;
+    /**
+     * The destination for a service and message.
+     * <p>Messages for a known process go straight to the process container,
+     * which runs on the thread model the process inherits from its service.
+     * An inline process has no thread of its own and runs on its service's, so
+     * unless the service is inline too its messages go through the service
+     * container.  When the service has no process for the message it goes to
+     * the service, which bounces it.
+     */
+    private static class Route {
+        private final MessagingContainer serviceContainer;
+        private final Service service;
+        private final MessagingContainer processContainer;
 
-        private MessageKey(int connection, int message) {
-            this.timestamp = new Date().getTime();
-            this.connection = connection;
-            this.session = message;
+        private Route(MessagingContainer serviceContainer, MessagingContainer processContainer) {
+            this.serviceContainer = serviceContainer;
+            this.service = (Service)serviceContainer.getHandler();
+            this.processContainer =
+                    processContainer instanceof MessagingContainerInline &&
+                            !(serviceContainer instanceof MessagingContainerInline) ?
+                    null :
+                    processContainer;
+        }
+
+        private void inbound(Envelope message) {
+            if (this.processContainer == null) {
+                this.serviceContainer.inbound(message);
+                return;
+            }
+            this.service.routed(message);
+            this.processContainer.inbound(message);
         }
     }
 
@@ -11,6 +11,11 @@ package lexa.core.server;
 
 import lexa.core.process.ProcessException;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import lexa.core.data.*;
 import lexa.core.data.config.ConfigDataSet;
 import lexa.core.data.exception.DataException;
@@ -22,6 +27,7 @@ import lexa.core.queue.Queue;
 import lexa.core.server.connection.Connection;
 import lexa.core.server.context.Config;
 import lexa.core.server.context.Context;
+import lexa.core.server.context.Value;
 import lexa.core.process.factory.ProcessFactory;
 import lexa.core.server.messaging.*;
 import lexa.core.process.LexaProcess;
@@ -36,6 +42,23 @@ import lexa.core.process.Status;
  * <p>The configuration block for a process is:
  * <pre>
  * &lt;processName&gt; {
+ *   [type &lt;threadModel&gt;]
+ *   [pool &lt;poolName&gt;]
+ *   [partitions &lt;partitions&gt;]
+ *   [partitionKey &lt;partitionKey&gt;]
+ *   [maxProcesses &lt;maxProcesses&gt;]
+ *   [minProcesses &lt;minProcesses&gt;]
+ *   [idleTimeout &lt;idleTimeout&gt;]
+ *   [prewarm &lt;prewarm&gt;]
+ *   [concurrent &lt;concurrent&gt;]
+ *   [cache {
+ *     &lt;cache config&gt;
+ *   }]
+ *   [batchRequests &lt;batchRequests&gt;]
+ *   [batchWait &lt;batchWait&gt;]
+ *   [coalesce {
+ *     [keyFields &lt;keyFields&gt;]
+ *   }]
  *   [connectionName &lt;connectionName&gt;]
  *   classPath &lt;classPath&gt;
  *   [config {
@@ -46,6 +69,38 @@ import lexa.core.process.Status;
  * <p>Where:
  * <dl>
  * <dt>&lt;processName&gt;</dt><dd>a unique name within the service for a process.</dd>
+ * <dt>&lt;threadModel&gt;</dt><dd>the thread model for the process;
+ *      [optional; default is the service's thread model]</dd>
+ * <dt>&lt;poolName&gt;</dt><dd>a pool from the broker {@code poolList} to run the process on;
+ *      see {@link MessagingContainerFactory}. [optional]</dd>
+ * <dt>&lt;partitions&gt;</dt><dd>the number of independent agents to run for the process,
+ *      each in its own container; see {@link ProcessPartitions}. [optional; default is 1]</dd>
+ * <dt>&lt;partitionKey&gt;</dt><dd>the request field used to choose the agent for a message;
+ *      messages with the same key are always handled by the same agent, in order.
+ *      [required when there is more than one partition]</dd>
+ * <dt>&lt;maxProcesses&gt;</dt><dd>the most instances of the process the agent will run
+ *      at once. [optional; default is 1]</dd>
+ * <dt>&lt;minProcesses&gt;</dt><dd>the fewest instances the agent keeps once they have been
+ *      created. [optional; default is 1]</dd>
+ * <dt>&lt;idleTimeout&gt;</dt><dd>the period in milliseconds after which an idle instance
+ *      above {@code minProcesses} is discarded; {@code 0} keeps every instance.
+ *      [optional; default is 0]</dd>
+ * <dt>&lt;prewarm&gt;</dt><dd>if {@code true} then {@code minProcesses} instances are created
+ *      when the agent starts rather than as requests arrive. [optional; default is false]</dd>
+ * <dt>&lt;concurrent&gt;</dt><dd>if {@code true} then requests are handled and processes run
+ *      on the process's pool, up to {@code maxProcesses} at once, rather than one at a time
+ *      on the agent's thread; see {@link MessagingContainerFactory}. [optional; default is false]</dd>
+ * <dt>&lt;cache config&gt;</dt><dd>the configuration for a cache of replies, answered without
+ *      running the process; see {@link ReplyCache}. [optional]</dd>
+ * <dt>&lt;batchRequests&gt;</dt><dd>if more than {@code 1} then the process must be a
+ *      {@link BatchProcess} and is passed up to this many requests at a time;
+ *      see below. [optional; default is 1]</dd>
+ * <dt>&lt;batchWait&gt;</dt><dd>the most time in microseconds a request waits for a batch
+ *      to fill. [optional; default is 1000]</dd>
+ * <dt>&lt;keyFields&gt;</dt><dd>if a {@code coalesce} block is given then a request that
+ *      matches one already being handled, on service, message and these space separated
+ *      request fields, waits for that request's reply instead of being run again;
+ *      [optional; default is the whole request]</dd>
  * <dt>&lt;connectionName&gt;</dt><dd>the name of a message broker that this process will
  *      connect to for sending messages; the name may be {@code local}, for a loop back connection,
  *      or any named broker from the {@link Broker} {@code brokerList} configuration block.
@@ -54,6 +109,23 @@ import lexa.core.process.Status;
  * <dt>&lt;process config&gt;</dt><dd>the configuration for the process; see the implementations
  *      of {@link Process} for details.</dd>
  * </dl>
+ * <p>In batch mode requests are gathered until there are {@code batchRequests}
+ * or the first has waited {@code batchWait}, and are then passed to the process
+ * together.  Batches are handled one at a time by a single instance, on the
+ * process's pool if it is {@code concurrent} and otherwise on the agent's own
+ * container; more partitions give more batches at once.  The requests bypass
+ * the process's state machine, so batch processes cannot forward messages.
+ * System requests, such as {@code CLOSE_MESSAGE}, and messages without a
+ * request are not batched; they go to an instance as usual.
+ * <p>New instances are created on a background thread, never on the thread
+ * delivering messages, and are put to work on the agent's container; a request
+ * waits in the agent's queue until an instance is free or a new one is ready.
+ * <p>A process may send partial replies before the one that closes the message.
+ * If the caller asked for a stream, with {@link Message#setStreaming(int)}, the
+ * request carries a {@code credit}; the process is held back once it has sent
+ * that many replies and resumes as the caller grants more credit.  Closing the
+ * message, or passing its deadline, ends the stream and releases the process,
+ * so a caller that stops reading never keeps it from the pool.
  *
  * @author William
  * @since 2013-04
@@ -62,7 +134,6 @@ public class ProcessAgent
 		implements MessagingHandler,
 				MessageSource
 {
-
     private final MessagingStatus status;
 
     @Override
@@ -71,15 +142,40 @@ public class ProcessAgent
         return this.status;
     }
 
-	public static MessagingContainer container(ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary, boolean inline)
+	public static MessagingContainer container(ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory)
             throws DataException,
 				ProcessException,
 				ExpressionException
 	{
-		ProcessAgent processAgent = new ProcessAgent(classLoader, config, functionLibrary);
-		return inline ?
-					new MessagingContainerInline(processAgent) :
-					new MessagingContainerAsync(processAgent);
+		MessagingContainerFactory processFactory = containerFactory.forConfig(config);
+		String name = config.getString(Config.NAME);
+		Executor executor = config.get(Config.CONCURRENT, false).getBoolean() ?
+				processFactory.executor() :
+				null;
+		int partitions = config.get(Config.PARTITIONS, 1).getInteger();
+		String partitionKey = config.get(Config.PARTITION_KEY, null).getString();
+		if (partitions < 1)
+		{
+			throw new DataException("Config partitions must be at least 1: " + name);
+		}
+		if (partitions == 1)
+		{
+			return processFactory.container(
+					new ProcessAgent(name, classLoader, config, functionLibrary, executor,
+							processFactory.background()));
+		}
+		if (partitionKey == null)
+		{
+			throw new DataException("Config missing partitionKey: " + name);
+		}
+		List<MessagingContainer> agents = new ArrayList<>(partitions);
+		for (int p = 0; p < partitions; p++)
+		{
+			agents.add(processFactory.container(
+					new ProcessAgent(name + "#" + p, classLoader, config, functionLibrary, executor,
+							processFactory.background())));
+		}
+		return new ProcessPartitions(name, partitionKey, agents);
 	}
 
     /** logger for events */
@@ -90,12 +186,70 @@ public class ProcessAgent
 	private final Queue forwardReplies;
     /** the maximum number of child processes for this process */
     private final int maxProcesses;
+    /** the number of child processes kept when idle */
+    private final int minProcesses;
+    /** the period in milliseconds before an idle child process is discarded */
+    private final int idleTimeout;
+    /** create the minimum child processes at start up */
+    private final boolean prewarm;
+    /** the number of child processes being created */
+    private int creating;
+    /** indicate if a check for idle child processes is scheduled */
+    private boolean evictionPending;
     /** factory to produce processes */
     private final ProcessFactory factory;
-    /** a list of processes used to handle messages */
-    private final List<LexaProcess> processes;
+    /** the processes used to handle messages, by id */
+    private final IntHashMap<LexaProcess> processes;
+    /** processes ready to accept a request, most recently used first */
+    private final Deque<Idle> idle;
+    /** processes with requests to forward */
+    private final Deque<LexaProcess> requestPending;
+    /** processes waiting to be run */
+    private final Deque<LexaProcess> waitingProcess;
+    /** processes with a reply ready */
+    private final Deque<LexaProcess> replyReady;
+    /** processes running a step on the executor, by id */
+    private final IntHashMap<LexaProcess> stepping;
+    /** replies for processes that were running a step when they arrived */
+    private final Deque<DataSet> deferredReplies;
+    /** replies kept for repeated requests; {@code null} if replies are not cached */
+    private final ReplyCache cache;
+    /** builds the keys for coalescing requests; {@code null} if requests are not coalesced */
+    private final RequestKey coalesce;
+    /** the requests waiting for a matching request being handled, by key */
+    private final Map<List<Object>, List<DataSet>> inFlight;
+    /** the key of the request each process is handling for others, by process id */
+    private final IntHashMap<List<Object>> flightKeys;
+    /** the most requests passed to a batch process at once; {@code 1} if not batching */
+    private final int batchRequests;
+    /** the most time in microseconds a request waits for a batch to fill */
+    private final int batchWait;
+    /** the requests gathered for the next batch */
+    private List<DataSet> batch;
+    /** counts the batches taken, so a timer for an earlier batch does nothing */
+    private long batchGeneration;
+    /** the timer waiting for the next batch to fill; {@code null} if none */
+    private ScheduledFuture<?> batchTimer;
+    /** the process that handles batches; {@code null} if not batching */
+    private final BatchProcess batchProcess;
+    /** held while the batch process handles a batch */
+    private final ReentrantLock batchLock;
+    /** runs the steps of concurrent processes; {@code null} to run them in turn */
+    private final Executor executor;
+    /** creates and discards processes and runs timers, shared by the broker */
+    private final ScheduledExecutorService background;
+    /** processes that failed, retried on the next pass */
+    private final Deque<LexaProcess> stalled;
+    /** the queue each process is in, by process id; not kept for idle processes */
+    private final IntHashMap<Deque<LexaProcess>> queuedIn;
     /** all outbound messages currently being processed */
-    private final HashMap<Integer, Message> outboundMessages;
+    private final IntHashMap<Message> outboundMessages;
+    /** the streamed replies waiting on credit, by caller */
+    private final Map<Long, Stream> streams;
+    /** the stream each process is replying to, by process id */
+    private final IntHashMap<Stream> processStreams;
+    /** the deadline of the request each process is handling, by process id */
+    private final HashMap<Integer, Long> deadlines;
     /** the name of a {@link MessageBroker} that this can connect to for forwarding messages */
     private final String connectionName;
     /** the {@link MessageBroker} that this can connect to for forwarding messages */
@@ -106,12 +260,14 @@ public class ProcessAgent
     private boolean running;
 	private Service service;
 	private boolean active;
+	/** held while the state of the agent is used or changed */
+	private final ReentrantLock lock;
 
     /**
      * Create a new process from the supplied config.
      *
      * @param   name
-     *          The name of the process.
+     *          The name of the process; a partition adds its number.
      * @param   config
      *          the configuration for the process.
      * @throws  DataException
@@ -119,21 +275,72 @@ public class ProcessAgent
      * @throws  ProcessException
      *          when an exception occurs within the processes.
      */
-	private ProcessAgent(ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary)
+	private ProcessAgent(String name, ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary,
+			Executor executor, ScheduledExecutorService background)
             throws DataException, ProcessException, ExpressionException
 	{
-        this.name = config.getString(Config.NAME);
+        this.name = name;
         this.status = new MessagingStatus(this.name);
         this.logger = new Logger(ProcessAgent.class.getSimpleName(), this.name);
+        this.lock = new ReentrantLock();
+        this.batchLock = new ReentrantLock();
 		this.inbound = new FIFOQueue();  // TODO - lose the queue, it's queued above here
         this.connectionName = config.get(Config.CONNECTION_NAME,null).getString();
-        this.processes = new LinkedList();
-        this.outboundMessages = new HashMap();
+        this.processes = new IntHashMap<>();
+        this.idle = new ArrayDeque<>();
+        this.requestPending = new ArrayDeque<>();
+        this.waitingProcess = new ArrayDeque<>();
+        this.replyReady = new ArrayDeque<>();
+        this.stalled = new ArrayDeque<>();
+        this.queuedIn = new IntHashMap<>();
+        this.stepping = new IntHashMap<>();
+        this.deferredReplies = new ArrayDeque<>();
+        this.executor = executor;
+        this.background = background;
+        if (config.contains(Config.COALESCE)) {
+            ConfigDataSet coalesceConfig = config.getDataSet(Config.COALESCE);
+            this.coalesce = new RequestKey(coalesceConfig.get(Config.KEY_FIELDS, null).getString());
+            coalesceConfig.close();
+        } else {
+            this.coalesce = null;
+        }
+        this.batchRequests = config.get(Config.BATCH_REQUESTS, 1).getInteger();
+        this.batchWait = config.get(Config.BATCH_WAIT, Value.DEFAULT_BATCH_WAIT).getInteger();
+        if (this.batchRequests < 1 || this.batchWait < 0) {
+            throw new DataException("Config batch limits are invalid: " + this.name);
+        }
+        this.batch = new ArrayList<>();
+        this.inFlight = new HashMap<>();
+        this.flightKeys = new IntHashMap<>();
+        this.cache = config.contains(Config.CACHE) ?
+                new ReplyCache(config.getDataSet(Config.CACHE), this.name, this.status) :
+                null;
+        this.outboundMessages = new IntHashMap<>();
+        this.deadlines = new HashMap<>();
+        this.streams = new HashMap<>();
+        this.processStreams = new IntHashMap<>();
         this.maxProcesses =config.get(Config.MAX_PROCESSES, 1).getInteger();
+        this.minProcesses =config.get(Config.MIN_PROCESSES, 1).getInteger();
+        this.idleTimeout =config.get(Config.IDLE_TIMEOUT, 0).getInteger();
+        this.prewarm =config.get(Config.PREWARM, false).getBoolean();
+        if (this.minProcesses < 1 || this.minProcesses > this.maxProcesses) {
+            throw new DataException("Config minProcesses must be between 1 and maxProcesses: " + this.name);
+        }
+        if (this.idleTimeout < 0) {
+            throw new DataException("Config idleTimeout must not be negative: " + this.name);
+        }
         this.factory = new ProcessFactory(
 				classLoader, config, functionLibrary);
         // create the first process, this will ensure the config is clean and the factory sound.
-        this.processes.add(factory.instance());
+        LexaProcess first = this.factory.instance();
+        if (this.batchRequests == 1) {
+            this.batchProcess = null;
+        } else if (first instanceof BatchProcess) {
+            this.batchProcess = (BatchProcess)first;
+        } else {
+            throw new DataException("Config batchRequests needs a BatchProcess: " + this.name);
+        }
+        this.addProcess(first);
 
 		this.forwardReplies = new FIFOQueue();
 		this.active = false;
@@ -150,14 +357,70 @@ public class ProcessAgent
 			this.connection = this.service.getConnection(this.connectionName);
 		}
         this.status.setActive(true);
+		if (this.prewarm)
+		{
+			this.lock.lock();
+			try
+			{
+				while (this.processes.size() + this.creating < this.minProcesses)
+				{
+					this.requestProcess();
+				}
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+		}
 	}
 
 	@Override
-	public void inbound(DataSet message)
+	public void inbound(Envelope envelope)
 	{
+		// processes work on the message data
+		DataSet message = envelope.getData();
 		this.logger.debug("inbound", message);
+		if (Value.CREDIT.equals(envelope.getSystemRequest()))
+		{
+			this.grantCredit(message);
+			process();
+			return;
+		}
+		if (Value.CLOSE_MESSAGE.equals(envelope.getSystemRequest()))
+		{
+			this.closeStream(message);
+		}
         this.status.addReceived();
-        this.inbound.add(message);
+		if (this.cache != null)
+		{
+			DataSet reply = this.cache.get(message);
+			if (reply != null)
+			{
+				this.sendReply(reply);
+				return;
+			}
+		}
+		if (this.coalesce != null && this.joinFlight(message))
+		{
+			return;
+		}
+		// system requests, such as CLOSE_MESSAGE, go to the process as usual
+		if (this.batchProcess != null &&
+				envelope.getSystemRequest() == null &&
+				message.contains(Context.REQUEST))
+		{
+			this.addToBatch(message);
+			return;
+		}
+		this.lock.lock();
+		try
+		{
+			this.inbound.add(message);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
 		process();
 	}
 
@@ -165,96 +428,888 @@ public class ProcessAgent
     public void messageClosed(Message message) {
         int sid = message.getSourceId();
         this.logger.debug("messageClosed " + sid);
-        this.outboundMessages.remove(sid);
+        this.lock.lock();
+        try {
+            this.outboundMessages.remove(sid);
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     @Override
-    public synchronized void replyReceived(Message message) {
+    public void replyReceived(Message message) {
 		DataSet reply = new ArrayDataSet()
 				.put(Context.SOURCE_REF, message.getSourceReference())
 				.put(Context.REPLY, message.getReply());
 		this.logger.debug("replyRecieved", reply);
-		this.forwardReplies.add(reply);
-		process();
+		this.lock.lock();
+		try
+		{
+			this.forwardReplies.add(reply);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		// the reply arrives on the connection's thread, so the processes are
+		// run on the agent's own container
+		this.container.execute(this::process);
 	}
 
+	/**
+	 * Pass a partial reply on to the process that forwarded the message.
+	 * <p>The process sees the reply as received so far, just as for the first.
+	 * @param   message
+	 *          the forwarded message.
+	 */
 	@Override
 	public void updateReceived(Message message)
 	{
-		throw new UnsupportedOperationException("lexa.core.server.ProcessAgent.updateReceived:void not supported yet."); //To change body of generated methods, choose Tools | Templates.
+		this.replyReceived(message);
 	}
 
-	private synchronized void process()
+	/**
+	 * Add credit to a streamed reply and release its process if it was held.
+	 * @param   message
+	 *          the credit request from the caller.
+	 */
+	private void grantCredit(DataSet message)
 	{
-		if (this.active)
+		this.lock.lock();
+		try
 		{
-			return;
+			Stream stream = this.streams.get(ProcessAgent.streamKey(message));
+			if (stream == null)
+			{
+				return; // already closed
+			}
+			stream.credit += message.getInteger(Context.CREDIT);
+			if (stream.held && stream.credit > 0)
+			{
+				stream.held = false;
+				this.schedule(stream.process);
+			}
 		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
 
-		this.active = true;
-		while (this.active)
+	/**
+	 * End the stream for a message that the caller has closed.
+	 * @param   message
+	 *          the close request from the caller.
+	 */
+	private void closeStream(DataSet message)
+	{
+		this.lock.lock();
+		try
 		{
-			this.processAction();
-			if (this.forwardReplies.isEmpty())
+			Stream stream = this.streams.get(ProcessAgent.streamKey(message));
+			if (stream != null)
 			{
-				this.active = false;
+				this.releaseStream(stream);
 			}
-			else
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * End a stream once its message has passed its deadline.
+	 * <p>Run by the timer set when the stream started.
+	 * @param   stream
+	 *          the stream.
+	 */
+	private void expireStream(Stream stream)
+	{
+		this.lock.lock();
+		try
+		{
+			if (this.streams.get(stream.key) != stream)
 			{
-				this.processForwardReplies();
+				return; // already closed
 			}
+			this.logger.debug("Stream expired " + stream.process.getId());
+			this.releaseStream(stream);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		this.container.execute(this::process);
+	}
+
+	/**
+	 * Drop a stream and put its process back to work if it was held.
+	 * <p>The process sends the rest of its replies without waiting for credit
+	 * and then returns to the pool.
+	 * <p>Called with the agent locked.
+	 * @param   stream
+	 *          the stream.
+	 */
+	private void releaseStream(Stream stream)
+	{
+		this.streams.remove(stream.key);
+		this.processStreams.remove(stream.process.getId());
+		if (stream.held)
+		{
+			stream.held = false;
+			this.schedule(stream.process);
 		}
 	}
-	private synchronized void processAction()
+
+	/**
+	 * Get the key for a streamed reply.
+	 * @param   message
+	 *          a message from the caller.
+	 * @return  the connection and source ids combined.
+	 */
+	private static long streamKey(DataSet message)
+	{
+		return ((long)message.getInteger(Context.CONNECTION_ID) << 32) |
+				(message.getInteger(Context.SOURCE_ID) & 0xffffffffL);
+	}
+
+	/**
+	 * Run the processes and pass on the forwarded replies until there is
+	 * nothing left to do.
+	 * <p>The agent is locked while it runs.  The lock is a {@link ReentrantLock}
+	 * rather than a monitor so that a virtual thread blocked within a process,
+	 * or in forwarding a request, does not pin its carrier thread.
+	 */
+	private void process()
+	{
+		this.lock.lock();
+		try
+		{
+			if (this.active)
+			{
+				return;
+			}
+
+			this.active = true;
+			while (this.active)
+			{
+				this.processAction();
+				if (this.forwardReplies.isEmpty())
+				{
+					this.active = false;
+				}
+				else
+				{
+					this.processForwardReplies();
+				}
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+	/**
+	 * Run the processes until none has anything to do.
+	 * <p>Each process is held in the queue for its state and moved to another
+	 * queue when it changes state, so finding the next piece of work does not
+	 * depend on the number of processes.  A process waiting for forwarded
+	 * replies is in no queue until a reply arrives.
+	 * <p>Called with the agent locked.
+	 */
+	private void processAction()
 	{
-		// check the processes states:
-		boolean busy;
 		this.logger.debug("processAction.start");
-		do
+		// give the processes that failed last time another try
+		LexaProcess process;
+		while ((process = this.stalled.poll()) != null)
 		{
-			busy = false;
-			for (LexaProcess process : this.processes)
+			// skip any taken out of the queue by a later reply
+			if (this.queuedIn.get(process.getId()) == this.stalled)
 			{
-				try {
-					Status status = process.getStatus();
-					if (status.acceptRequests() && !this.inbound.isEmpty()) {
-						DataSet request = this.inbound.get();
-						this.logger.debug("Submit request",request);
-						process.handleRequest(request);
-						busy = true;
+				this.queuedIn.remove(process.getId());
+				this.schedule(process);
+			}
+		}
+		while (true)
+		{
+			try {
+				if ((process = this.poll(this.replyReady)) != null) {
+					this.deadlines.remove(process.getId());
+					DataSet reply = process.getReply();
+					if (this.cache != null) {
+						this.cache.put(reply);
 					}
-					if (status.requestPending()) {
-						this.processForwardRequests(process.getRequests());
-						busy = true;
+					this.sendReply(reply);
+					if (!this.flightKeys.isEmpty()) {
+						this.replyToFlight(process.getId(), reply);
 					}
-					if (status.waitingProcess()) {
-						process.process();
-						busy = true;
+					Stream stream = this.processStreams.isEmpty() ?
+							null :
+							this.processStreams.get(process.getId());
+					if (stream != null) {
+						if (Boolean.TRUE.equals(reply.getBoolean(Context.CLOSE))) {
+							this.processStreams.remove(process.getId());
+							this.streams.remove(stream.key);
+						} else if (--stream.credit <= 0) {
+							// held in no queue until the caller grants more
+							stream.held = true;
+							continue;
+						}
 					}
-					if (status.replyReady()) {
-						this.outbound(process.getReply());
-						busy = true;
+				} else if ((process = this.poll(this.requestPending)) != null) {
+					this.processForwardRequests(process.getRequests());
+				} else if ((process = this.poll(this.waitingProcess)) != null) {
+					if (this.executor != null) {
+						this.runStep(process, null);
+						continue;
 					}
+					process.process();
+				} else if (!this.inbound.isEmpty() && (process = this.nextIdle()) != null) {
+					DataSet request = this.inbound.get();
+					List<Object> flightKey = this.flightKey(request);
+					if (Message.isExpired(request)) {
+						this.logger.debug("Expired request",request);
+						this.status.addExpired();
+						DataSet next = flightKey == null ? null : this.leaveFlight(flightKey);
+						if (next != null) {
+							this.inbound.add(next);
+						}
+						this.idle.push(new Idle(process));
+						continue;
+					}
+					this.logger.debug("Submit request",request);
+					if (request.contains(Context.DEADLINE)) {
+						this.deadlines.put(process.getId(), request.getLong(Context.DEADLINE));
+					}
+					if (flightKey != null) {
+						this.flightKeys.put(process.getId(), flightKey);
+					}
+					if (request.contains(Context.CREDIT)) {
+						Stream stream = new Stream(ProcessAgent.streamKey(request),
+								process, request.getInteger(Context.CREDIT));
+						this.streams.put(stream.key, stream);
+						this.processStreams.put(process.getId(), stream);
+						if (request.contains(Context.DEADLINE)) {
+							this.background.schedule(() -> this.expireStream(stream),
+									request.getLong(Context.DEADLINE) - System.currentTimeMillis(),
+									TimeUnit.MILLISECONDS);
+						}
+					}
+					if (this.executor != null) {
+						this.runStep(process, request);
+						continue;
+					}
+					process.handleRequest(request);
+				} else {
+					break;
 				}
-				catch (ProcessException ex)
+				this.schedule(process);
+			}
+			catch (ProcessException ex)
+			{
+				this.logger.error(this.getName() + '.' +  process.getId() + "failed.", ex);
+				this.status.addError();
+				this.stall(process);
+			}
+		}
+		this.logger.debug("processAction.end");
+	}
+
+	/**
+	 * Set a process that failed aside, to be retried on the next pass.
+	 * <p>If it was handling a request for others their flight is handed on, so
+	 * the first waiting request is handled in its place rather than waiting
+	 * for a reply that may never come.
+	 * <p>Called with the agent locked.
+	 * @param   process
+	 *          the process that failed.
+	 */
+	private void stall(LexaProcess process)
+	{
+		this.enqueue(this.stalled, process);
+		List<Object> flightKey = this.flightKeys.remove(process.getId());
+		if (flightKey != null)
+		{
+			DataSet next = this.leaveFlight(flightKey);
+			if (next != null)
+			{
+				this.inbound.add(next);
+			}
+		}
+	}
+
+	/**
+	 * Get the key for coalescing a request.
+	 * @param   message
+	 *          the inbound message.
+	 * @return  the key; or {@code null} if the request is not coalesced.
+	 */
+	private List<Object> flightKey(DataSet message)
+	{
+		if (this.coalesce == null)
+		{
+			return null;
+		}
+		List<Object> requestKey = this.coalesce.messageKey(message);
+		if (requestKey == null)
+		{
+			return null;
+		}
+		return Arrays.asList(message.getString(Context.SERVICE),
+				message.getString(Context.MESSAGE),
+				requestKey);
+	}
+
+	/**
+	 * Wait for the reply to a matching request if one is being handled.
+	 * @param   message
+	 *          the inbound message.
+	 * @return  {@code true} if the message is waiting for another request;
+	 *          {@code false} if it should be handled.
+	 */
+	private boolean joinFlight(DataSet message)
+	{
+		List<Object> key = this.flightKey(message);
+		if (key == null)
+		{
+			return false;
+		}
+		this.lock.lock();
+		try
+		{
+			List<DataSet> waiting = this.inFlight.get(key);
+			if (waiting == null)
+			{
+				this.inFlight.put(key, new ArrayList<>());
+				return false;
+			}
+			this.logger.debug("Coalesced request", message);
+			this.status.addCoalesced();
+			waiting.add(message);
+			return true;
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Hand a flight on when its request will not be handled.
+	 * <p>The first waiting request, if any, is to be handled for the others.
+	 * @param   key
+	 *          the key for the flight.
+	 * @return  the request to handle in place of the one leaving;
+	 *          or {@code null} if none was waiting.
+	 */
+	private DataSet leaveFlight(List<Object> key)
+	{
+		List<DataSet> waiting = this.inFlight.remove(key);
+		if (waiting == null || waiting.isEmpty())
+		{
+			return null;
+		}
+		DataSet next = waiting.remove(0);
+		this.inFlight.put(key, waiting);
+		return next;
+	}
+
+	/**
+	 * Send a copy of a reply to the requests waiting for it.
+	 * <p>The flight ends with the reply that closes the message.
+	 * @param   processId
+	 *          the id of the process that replied.
+	 * @param   reply
+	 *          the reply.
+	 */
+	private void replyToFlight(int processId, DataSet reply)
+	{
+		List<Object> key = this.flightKeys.get(processId);
+		if (key == null)
+		{
+			return;
+		}
+		if (Boolean.TRUE.equals(reply.getBoolean(Context.CLOSE)))
+		{
+			this.flightKeys.remove(processId);
+		}
+		this.sendToFlight(key, reply);
+	}
+
+	/**
+	 * Send a copy of a reply to the requests waiting on a key.
+	 * <p>The flight ends with the reply that closes the message.
+	 * @param   key
+	 *          the key for the flight.
+	 * @param   reply
+	 *          the reply.
+	 */
+	private void sendToFlight(List<Object> key, DataSet reply)
+	{
+		List<DataSet> waiting = Boolean.TRUE.equals(reply.getBoolean(Context.CLOSE)) ?
+				this.inFlight.remove(key) :
+				this.inFlight.get(key);
+		if (waiting == null)
+		{
+			return;
+		}
+		for (DataSet message : waiting)
+		{
+			DataSet copy = new ArrayDataSet(message);
+			for (String field : new String[] {Context.REPLY, Context.RETURN, Context.CLOSE})
+			{
+				if (reply.contains(field))
 				{
-					this.logger.error(this.getName() + '.' +  process.getId() + "failed.", ex);
-					this.status.addError();
+					copy.put(reply.get(field));
 				}
 			}
-			if (!this.inbound.isEmpty() && this.processes.size() < this.maxProcesses)
+			this.sendReply(copy);
+		}
+	}
+
+	/**
+	 * Add a request to the next batch.
+	 * <p>A full batch is handled straight away; otherwise the first request in
+	 * a batch starts the wait for it to fill.
+	 * @param   message
+	 *          the inbound message.
+	 */
+	private void addToBatch(DataSet message)
+	{
+		List<DataSet> full = null;
+		this.lock.lock();
+		try
+		{
+			this.batch.add(message);
+			if (this.batch.size() >= this.batchRequests)
+			{
+				full = this.takeBatch();
+			}
+			else if (this.batch.size() == 1)
+			{
+				long generation = this.batchGeneration;
+				this.batchTimer = this.background.schedule(() -> this.flushBatch(generation),
+						this.batchWait, TimeUnit.MICROSECONDS);
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		if (full != null)
+		{
+			this.submitBatch(full);
+		}
+	}
+
+	/**
+	 * Handle the requests gathered so far once the wait for a batch is over.
+	 * <p>Run by the timer, so the batch is passed to the executor if the
+	 * process is concurrent and otherwise to the agent's container.
+	 * @param   generation
+	 *          the batch the timer was started for; if it has already been
+	 *          taken the timer is stale and nothing is done.
+	 */
+	private void flushBatch(long generation)
+	{
+		List<DataSet> requests;
+		this.lock.lock();
+		try
+		{
+			if (generation != this.batchGeneration || this.batch.isEmpty())
+			{
+				return;
+			}
+			requests = this.takeBatch();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		if (this.executor != null)
+		{
+			this.executor.execute(() -> this.handleBatch(requests));
+		}
+		else
+		{
+			this.container.execute(() -> this.handleBatch(requests));
+		}
+	}
+
+	/**
+	 * Take the requests gathered for the next batch and stop its timer.
+	 * <p>Called with the agent locked.
+	 * @return  the requests in the batch.
+	 */
+	private List<DataSet> takeBatch()
+	{
+		List<DataSet> requests = this.batch;
+		this.batch = new ArrayList<>();
+		this.batchGeneration++;
+		if (this.batchTimer != null)
+		{
+			this.batchTimer.cancel(false);
+			this.batchTimer = null;
+		}
+		return requests;
+	}
+
+	/**
+	 * Handle a batch, on the executor if the process is concurrent and
+	 * otherwise on the calling thread.
+	 * @param   messages
+	 *          the inbound messages.
+	 */
+	private void submitBatch(List<DataSet> messages)
+	{
+		if (this.executor != null)
+		{
+			this.executor.execute(() -> this.handleBatch(messages));
+		}
+		else
+		{
+			this.handleBatch(messages);
+		}
+	}
+
+	/**
+	 * Pass a batch of requests to the batch process and send each reply
+	 * back to its caller.
+	 * @param   messages
+	 *          the inbound messages.
+	 */
+	private void handleBatch(List<DataSet> messages)
+	{
+		List<DataSet> live = new ArrayList<>(messages.size());
+		List<DataSet> requests = new ArrayList<>(messages.size());
+		for (DataSet message : messages)
+		{
+			if (Message.isExpired(message))
 			{
+				this.status.addExpired();
+				List<Object> flightKey = this.flightKey(message);
+				DataSet next;
+				this.lock.lock();
 				try
 				{
-					this.processes.add(this.factory.instance());
+					next = flightKey == null ? null : this.leaveFlight(flightKey);
 				}
-				catch (ProcessException | DataException | ExpressionException ex)
+				finally
 				{
-					this.logger.error("Cannot create new worker", ex);
+					this.lock.unlock();
 				}
+				if (next != null)
+				{
+					this.addToBatch(next);
+				}
+				continue;
 			}
-		} while (busy);
-		this.logger.debug("processAction.end");
+			live.add(message);
+			requests.add(message.getDataSet(Context.REQUEST));
+		}
+		if (live.isEmpty())
+		{
+			return;
+		}
+		List<DataSet> replies = null;
+		String error = null;
+		try
+		{
+			this.batchLock.lock();
+			try
+			{
+				replies = this.batchProcess.handleBatch(requests);
+			}
+			finally
+			{
+				this.batchLock.unlock();
+			}
+			if (replies == null || replies.size() != live.size())
+			{
+				error = "batch returned the wrong number of replies";
+			}
+		}
+		catch (ProcessException | RuntimeException ex)
+		{
+			this.logger.error(this.getName() + " batch failed.", ex);
+			error = "batch failed: " + ex.getMessage();
+		}
+		this.lock.lock();
+		try
+		{
+			for (int m = 0; m < live.size(); m++)
+			{
+				DataSet reply = new ArrayDataSet(live.get(m));
+				DataSet body = error == null ? replies.get(m) : null;
+				if (body == null)
+				{
+					this.status.addError();
+					reply.put(Context.RETURN, error == null ? "no reply in batch" : error);
+				}
+				else
+				{
+					reply.put(Context.REPLY, body);
+				}
+				reply.put(Context.CLOSE, true);
+				if (this.cache != null)
+				{
+					this.cache.put(reply);
+				}
+				this.sendReply(reply);
+				List<Object> flightKey = this.flightKey(live.get(m));
+				if (flightKey != null)
+				{
+					this.sendToFlight(flightKey, reply);
+				}
+			}
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Run a step of a process on the executor.
+	 * <p>The process is in none of the queues while the step runs, so nothing
+	 * else touches it; the agent is only locked to take the result.
+	 * @param   process
+	 *          the process to run.
+	 * @param   request
+	 *          the request for the process to handle;
+	 *          or {@code null} to run the process.
+	 */
+	private void runStep(LexaProcess process, DataSet request)
+	{
+		this.stepping.put(process.getId(), process);
+		this.executor.execute(() ->
+		{
+			boolean failed = false;
+			try
+			{
+				if (request != null)
+				{
+					process.handleRequest(request);
+				}
+				else
+				{
+					process.process();
+				}
+			}
+			catch (ProcessException | RuntimeException ex)
+			{
+				this.logger.error(this.getName() + '.' +  process.getId() + "failed.", ex);
+				this.status.addError();
+				failed = true;
+			}
+			this.lock.lock();
+			try
+			{
+				this.stepping.remove(process.getId());
+				if (failed)
+				{
+					this.stall(process);
+				}
+				else
+				{
+					this.schedule(process);
+				}
+				while (!this.deferredReplies.isEmpty())
+				{
+					this.forwardReplies.add(this.deferredReplies.poll());
+				}
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+			this.process();
+		});
+	}
+
+	/**
+	 * Get a process to accept a request.
+	 * <p>If none is idle and the maximum has not been reached another
+	 * process is requested; the request then waits until one is free.
+	 * @return  an idle process; or {@code null} if none is available.
+	 */
+	private LexaProcess nextIdle()
+	{
+		Idle idle = this.idle.poll();
+		if (idle != null)
+		{
+			return idle.process;
+		}
+		if (this.processes.size() + this.creating < this.maxProcesses)
+		{
+			this.requestProcess();
+		}
+		return null;
+	}
+
+	/**
+	 * Create another process on a background thread.
+	 */
+	private void requestProcess()
+	{
+		this.creating++;
+		this.background.execute(this::createProcess);
+	}
+
+	/**
+	 * Create another process and put it to work.
+	 * <p>Run on a background thread; instances are created one at a time as
+	 * the factory is not thread safe.
+	 */
+	private void createProcess()
+	{
+		LexaProcess process = null;
+		try
+		{
+			synchronized (this.factory)
+			{
+				process = this.factory.instance();
+			}
+		}
+		catch (ProcessException | DataException | ExpressionException | RuntimeException ex)
+		{
+			this.logger.error("Cannot create new worker", ex);
+		}
+		this.lock.lock();
+		try
+		{
+			this.creating--;
+			if (process == null)
+			{
+				return;
+			}
+			this.addProcess(process);
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+		// put it to work in turn with the agent's messages
+		this.container.execute(this::process);
+	}
+
+	/**
+	 * Discard the processes that have been idle too long.
+	 * <p>The least recently used processes are at the end of the idle queue.
+	 */
+	private void evictIdle()
+	{
+		this.lock.lock();
+		try
+		{
+			this.evictionPending = false;
+			long cutoff = System.currentTimeMillis() - this.idleTimeout;
+			while (this.processes.size() > this.minProcesses &&
+					!this.idle.isEmpty() &&
+					this.idle.peekLast().since <= cutoff)
+			{
+				LexaProcess process = this.idle.pollLast().process;
+				this.processes.remove(process.getId());
+				this.status.addEvicted();
+				this.logger.debug("Idle worker discarded " + process.getId());
+			}
+			this.scheduleEviction();
+		}
+		finally
+		{
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Schedule a check for idle processes if any could be discarded.
+	 */
+	private void scheduleEviction()
+	{
+		if (this.idleTimeout > 0 &&
+				!this.evictionPending &&
+				this.processes.size() > this.minProcesses &&
+				!this.idle.isEmpty())
+		{
+			this.evictionPending = true;
+			this.background.schedule(this::evictIdle,
+					this.idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Add a new process.
+	 * @param   process
+	 *          the new process.
+	 */
+	private void addProcess(LexaProcess process)
+	{
+		this.processes.put(process.getId(), process);
+		this.schedule(process);
+	}
+
+	/**
+	 * Check if a process is already in one of the queues to run.
+	 * @param   process
+	 *          a process.
+	 * @return  {@code true} if the process is queued, otherwise {@code false}.
+	 */
+	private boolean isQueued(LexaProcess process)
+	{
+		Deque<LexaProcess> queue = this.queuedIn.get(process.getId());
+		return queue != null && queue != this.stalled;
+	}
+
+	/**
+	 * Add a process to a queue and note the queue it is in.
+	 * @param   queue
+	 *          the queue.
+	 * @param   process
+	 *          the process.
+	 */
+	private void enqueue(Deque<LexaProcess> queue, LexaProcess process)
+	{
+		queue.add(process);
+		this.queuedIn.put(process.getId(), queue);
+	}
+
+	/**
+	 * Take the next process from one of the queues to run.
+	 * @param   queue
+	 *          the queue.
+	 * @return  the next process; or {@code null} if the queue is empty.
+	 */
+	private LexaProcess poll(Deque<LexaProcess> queue)
+	{
+		LexaProcess process = queue.poll();
+		if (process != null)
+		{
+			this.queuedIn.remove(process.getId());
+		}
+		return process;
+	}
+
+	/**
+	 * Place a process in the queue for its state.
+	 * @param   process
+	 *          a process that is in none of the queues.
+	 */
+	private void schedule(LexaProcess process)
+	{
+		Status state = process.getStatus();
+		if (state.replyReady()) {
+			this.enqueue(this.replyReady, process);
+		} else if (state.requestPending()) {
+			this.enqueue(this.requestPending, process);
+		} else if (state.waitingProcess()) {
+			this.enqueue(this.waitingProcess, process);
+		} else if (state.acceptRequests()) {
+			this.idle.push(new Idle(process));
+			this.scheduleEviction();
+		}
+		// otherwise waiting for replies
 	}
 
 	@Override
@@ -264,16 +1319,27 @@ public class ProcessAgent
 	}
 
 	@Override
-	public void outbound(DataSet message)
+	public void outbound(Envelope message)
 	{
-		this.logger.debug("outbound", message);
         this.status.addReplied();
 		this.container.outbound(message);
 	}
 
+	/**
+	 * Send a reply from a process back to its caller.
+	 * @param   reply
+	 *          the reply data, including the header.
+	 */
+	private void sendReply(DataSet reply)
+	{
+		this.logger.debug("outbound", reply);
+		this.outbound(new Envelope(reply));
+	}
+
     /**
      * Process requests from the processes to the forward connection.
      * <p>The requests are in the format defined by {@link Process#getRequests()}
+     * <p>Each forwarded message inherits the deadline of the request being handled.
      *
      * @param   requests
      *          a set of requests to be sent.
@@ -282,8 +1348,9 @@ public class ProcessAgent
      *          <ul>
      *          <li>no forward connection</li>
      *          </ul>
+     * <p>Called with the agent locked.
      */
-    private synchronized void processForwardRequests(DataSet requests)
+    private void processForwardRequests(DataSet requests)
             throws ProcessException {
         this.logger.debug("Handle requests",requests);
         if (this.connection == null) {
@@ -296,12 +1363,20 @@ public class ProcessAgent
             Message message = new Message(this,
 					new ArrayDataSet(item.getDataSet())
 							.put(Context.SOURCE_REF,sourceRef));
+            Long deadline = this.deadlines.get(sourceRef);
+            if (deadline != null) {
+                message.setDeadline(deadline);
+            }
             int mid = this.connection.submit(message);
             this.outboundMessages.put(mid, message);
         }
     }
 
-	private synchronized void processForwardReplies()
+	/**
+	 * Pass the forwarded replies to their processes.
+	 * <p>Called with the agent locked.
+	 */
+	private void processForwardReplies()
 	{
 		while (!this.forwardReplies.isEmpty())
 		{
@@ -312,22 +1387,69 @@ public class ProcessAgent
 			DataSet reply = message.getDataSet(Context.REPLY);
 
 
-			LexaProcess process = null;
-			for (LexaProcess w : this.processes) {
-				if (w.getId() == ref) {
-					process = w;
-					break;
-				}
-			}
+			LexaProcess process = this.processes.get(ref);
 			if (process == null) {
 				this.logger.error("Reply received with no source process " + ref, reply, null);
+				continue;
+			}
+			if (this.stepping.containsKey(ref)) {
+				// handled once the step has finished
+				this.deferredReplies.add(message);
+				continue;
 			}
 			try {
 				process.handleReply(reply);
+				if (this.queuedIn.get(ref) == this.stalled) {
+					// left in the stalled queue, which skips it
+					this.queuedIn.remove(ref);
+				}
+				Stream stream = this.processStreams.isEmpty() ?
+						null :
+						this.processStreams.get(ref);
+				// a held process is scheduled when credit is granted
+				if ((stream == null || !stream.held) && !this.isQueued(process)) {
+					this.schedule(process);
+				}
 			} catch (ProcessException ex) {
 				this.logger.error("Unable to submit reply", reply, ex);
+				this.stall(process);
 			}
 		}
 		processAction(); // picks it up again
 	}
+
+	/**
+	 * A process in the idle queue with the time it became idle.
+	 */
+	private static class Idle
+	{
+		private final LexaProcess process;
+		private final long since;
+
+		private Idle(LexaProcess process)
+		{
+			this.process = process;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * A reply being streamed to a caller, with the credit left for it.
+	 */
+	private static class Stream
+	{
+		private final long key;
+		private final LexaProcess process;
+		/** the replies the process may send before it is held */
+		private int credit;
+		/** indicate if the process is held waiting for credit */
+		private boolean held;
+
+		private Stream(long key, LexaProcess process, int credit)
+		{
+			this.key = key;
+			this.process = process;
+			this.credit = credit;
+		}
+	}
 }
@@ -0,0 +1,288 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * ProcessPartitions.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lexa.core.data.DataSet;
+import lexa.core.process.ProcessException;
+import lexa.core.server.context.Context;
+import lexa.core.server.context.Value;
+import lexa.core.server.messaging.Envelope;
+import lexa.core.server.messaging.MessagingCaller;
+import lexa.core.server.messaging.MessagingContainer;
+import lexa.core.server.messaging.MessagingHandler;
+import lexa.core.server.messaging.MessagingStatus;
+
+/**
+ * A process run as several independent {@link ProcessAgent}s.
+ * <p>Each agent has its own container, so a busy process can use as many
+ * threads as it has partitions.  A request is passed to an agent chosen from
+ * the value of its {@code partitionKey} field, so all the requests for one key
+ * are handled by the same agent in the order they arrive.  Requests without
+ * the field are spread by their connection and message ids.
+ * <p>A system request, such as closing a message, goes to the agent that has
+ * the message it applies to.  One that arrives as data, without that message's
+ * request to route by, is sent to the agent noted for the message when it was
+ * routed by its key; a message without a key is found again from its ids.
+ * <p>The agents are placed on a hash ring with {@link Value#PARTITION_POINTS}
+ * points each; changing the number of partitions only moves the keys of the
+ * points that change hands.
+ * <p>Replies from the agents pass back through the partitions, which count
+ * them, to the service.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class ProcessPartitions
+		implements MessagingContainer,
+				MessagingHandler
+{
+	/** name of the process */
+	private final String name;
+	/** the request field used to choose the agent */
+	private final String partitionKey;
+	/** the containers for each agent */
+	private final MessagingContainer[] agents;
+	/** the hash of each point on the ring, in ascending order */
+	private final int[] points;
+	/** the agent for each point on the ring */
+	private final int[] owners;
+	/** status for the process, with each agent as a child */
+	private final MessagingStatus status;
+	/** the service the replies are passed to */
+	private volatile MessagingCaller caller;
+	/** the agent for each open message routed by its key, by connection and message ids */
+	private final Map<Long, Integer> holders;
+
+	/**
+	 * Create the partitions for a process.
+	 *
+	 * @param   name
+	 *          the name of the process.
+	 * @param   partitionKey
+	 *          the request field used to choose the agent.
+	 * @param   agents
+	 *          the containers for each agent.
+	 */
+	ProcessPartitions(String name, String partitionKey, List<MessagingContainer> agents)
+	{
+		this.name = name;
+		this.partitionKey = partitionKey;
+		this.agents = agents.toArray(new MessagingContainer[agents.size()]);
+		this.status = new MessagingStatus(name);
+		this.holders = new ConcurrentHashMap<>();
+		for (MessagingContainer agent : this.agents)
+		{
+			this.status.addChild(agent.getStatus());
+		}
+		int size = this.agents.length * Value.PARTITION_POINTS;
+		long[] ring = new long[size];
+		for (int a = 0; a < this.agents.length; a++)
+		{
+			for (int p = 0; p < Value.PARTITION_POINTS; p++)
+			{
+				int hash = ProcessPartitions.hash(name + "#" + a + "#" + p);
+				// sort by hash, keeping the agent in the low bits
+				ring[a * Value.PARTITION_POINTS + p] = ((long)hash << 32) | a;
+			}
+		}
+		Arrays.sort(ring);
+		this.points = new int[size];
+		this.owners = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			this.points[i] = (int)(ring[i] >> 32);
+			this.owners[i] = (int)ring[i];
+		}
+	}
+
+	/**
+	 * Spread the bits of a key's hash code; the steps are the murmur3 finaliser.
+	 *
+	 * @param   key
+	 *          the key.
+	 * @return  the hash for the key.
+	 */
+	private static int hash(Object key)
+	{
+		int h = key == null ? 0 : key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Get the agent for a key.
+	 *
+	 * @param   key
+	 *          the value of the partition key; may be {@code null}.
+	 * @return  the index of the agent; the first point at or after the key's hash.
+	 */
+	int partition(Object key)
+	{
+		int index = Arrays.binarySearch(this.points, ProcessPartitions.hash(key));
+		if (index < 0)
+		{
+			index = -index - 1;
+		}
+		return this.owners[index == this.points.length ? 0 : index];
+	}
+
+	/**
+	 * Get the agent for a message.
+	 *
+	 * @param   message
+	 *          the message, or a system request built from it.
+	 * @return  the index of the agent; from the partition key if the request has
+	 *          one, otherwise from the connection and message ids.
+	 */
+	int partition(Envelope message)
+	{
+		DataSet request = message.getRequest();
+		Object key = request == null ? null : request.getObject(this.partitionKey);
+		return this.partition(key == null ? ProcessPartitions.ids(message) : key);
+	}
+
+	/**
+	 * Get the connection and message ids of a message combined.
+	 *
+	 * @param   message
+	 *          the message, or a system request or reply for it.
+	 * @return  the ids combined.
+	 */
+	private static long ids(Envelope message)
+	{
+		return ((long)message.getConnectionId() << 32) | (message.getSourceId() & 0xffffffffL);
+	}
+
+	@Override
+	public void inbound(Envelope message)
+	{
+		String systemRequest = message.getSystemRequest();
+		if (!Value.CREDIT.equals(systemRequest))
+		{
+			this.status.addReceived();
+		}
+		int agent;
+		if (systemRequest != null && message.getRequest() == null)
+		{
+			// nothing to route by, so the agent noted for the message is used
+			Integer holder = this.holders.get(ProcessPartitions.ids(message));
+			agent = holder != null ? holder : this.partition(message);
+		}
+		else
+		{
+			agent = this.partition(message);
+			if (systemRequest == null &&
+					message.getRequest() != null &&
+					message.getRequest().getObject(this.partitionKey) != null)
+			{
+				this.holders.put(ProcessPartitions.ids(message), agent);
+			}
+		}
+		if (Value.CLOSE_MESSAGE.equals(systemRequest))
+		{
+			this.holders.remove(ProcessPartitions.ids(message));
+		}
+		this.agents[agent].inbound(message);
+	}
+
+	/**
+	 * Count a reply from an agent and pass it on to the service.
+	 * <p>The reply that closes a message ends the note of its agent.
+	 *
+	 * @param   message
+	 *          the reply.
+	 */
+	@Override
+	public void outbound(Envelope message)
+	{
+		this.status.addReplied();
+		if (Boolean.TRUE.equals(message.getData().getBoolean(Context.CLOSE)))
+		{
+			this.holders.remove(ProcessPartitions.ids(message));
+		}
+		this.caller.outbound(message);
+	}
+
+	@Override
+	public void start(MessagingCaller caller)
+			throws ProcessException
+	{
+		this.caller = caller;
+		for (MessagingContainer agent : this.agents)
+		{
+			// the agent is started by the service, then replies through here
+			agent.start(caller);
+			agent.handOver(this);
+		}
+		this.status.setActive(true);
+	}
+
+	@Override
+	public void start(MessagingCaller caller, MessagingContainer container)
+			throws ProcessException
+	{
+		this.start(caller);
+	}
+
+	@Override
+	public void close()
+	{
+		for (MessagingContainer agent : this.agents)
+		{
+			agent.close();
+		}
+	}
+
+	@Override
+	public void handOver(MessagingCaller caller)
+	{
+		// the agents reply through the partitions, so only they change caller
+		this.caller = caller;
+	}
+
+	/**
+	 * Run a task on the first agent's container.
+	 * <p>The agents run their own tasks on their own containers; this is for
+	 * anything else that holds the partitions as its container.
+	 *
+	 * @param   task
+	 *          the task to run.
+	 */
+	@Override
+	public void execute(Runnable task)
+	{
+		this.agents[0].execute(task);
+	}
+
+	@Override
+	public MessagingHandler getHandler()
+	{
+		return this;
+	}
+
+	@Override
+	public String getName()
+	{
+		return this.name;
+	}
+
+	@Override
+	public MessagingStatus getStatus()
+	{
+		return this.status;
+	}
+}
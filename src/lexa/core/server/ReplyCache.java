@@ -0,0 +1,193 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * ReplyCache.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataSet;
+import lexa.core.data.config.ConfigDataSet;
+import lexa.core.data.exception.DataException;
+import lexa.core.server.context.Config;
+import lexa.core.server.context.Context;
+import lexa.core.server.context.Value;
+import lexa.core.server.messaging.MessagingStatus;
+
+/**
+ * A cache of replies for a process that always gives the same reply to the same request.
+ * <p>The configuration block for the cache is:
+ * <pre>
+ * cache {
+ *   [ttl &lt;ttl&gt;]
+ *   [maxEntries &lt;maxEntries&gt;]
+ *   [maxBytes &lt;maxBytes&gt;]
+ *   [keyFields &lt;keyFields&gt;]
+ * }
+ * </pre>
+ * <p>Where:
+ * <dl>
+ * <dt>&lt;ttl&gt;</dt><dd>the period in milliseconds a reply is kept;
+ *      {@code 0} keeps it until it is pushed out. [optional; default is 0]</dd>
+ * <dt>&lt;maxEntries&gt;</dt><dd>the most replies kept. [optional; default is 1000]</dd>
+ * <dt>&lt;maxBytes&gt;</dt><dd>the most memory, roughly, used by the replies kept;
+ *      {@code 0} for no limit. [optional; default is 0]</dd>
+ * <dt>&lt;keyFields&gt;</dt><dd>a space separated list of the request fields that
+ *      decide the reply. [optional; default is the whole request]</dd>
+ * </dl>
+ * <p>When a limit is reached the least recently used replies are discarded.
+ * Only successful replies are kept.  Hits, misses and evictions are counted in
+ * the process's {@link MessagingStatus}.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class ReplyCache
+{
+	/** the period in milliseconds a reply is kept; {@code 0} for no limit */
+	private final int ttl;
+	/** the most replies kept */
+	private final int maxEntries;
+	/** the most memory used by the replies kept; {@code 0} for no limit */
+	private final long maxBytes;
+	/** builds the key for each request */
+	private final RequestKey requestKey;
+	/** the status to count hits, misses and evictions in */
+	private final MessagingStatus status;
+	/** the replies, least recently used first */
+	private final LinkedHashMap<List<Object>, Entry> entries;
+	/** the memory used by the replies kept */
+	private long bytes;
+
+	/**
+	 * Create a cache from its configuration.
+	 *
+	 * @param   config
+	 *          the {@code cache} block for the process.
+	 * @param   name
+	 *          the name of the process.
+	 * @param   status
+	 *          the status for the process.
+	 * @throws  DataException
+	 *          when there is a problem in the configuration.
+	 */
+	ReplyCache(ConfigDataSet config, String name, MessagingStatus status)
+			throws DataException
+	{
+		this.ttl = config.get(Config.TTL, 0).getInteger();
+		this.maxEntries = config.get(Config.MAX_ENTRIES, Value.DEFAULT_CACHE_ENTRIES).getInteger();
+		this.maxBytes = config.get(Config.MAX_BYTES, 0).getInteger();
+		String fields = config.get(Config.KEY_FIELDS, null).getString();
+		config.close();
+		if (this.ttl < 0 || this.maxEntries < 1 || this.maxBytes < 0)
+		{
+			throw new DataException("Config cache limits are invalid: " + name);
+		}
+		this.requestKey = new RequestKey(fields);
+		this.status = status;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.bytes = 0;
+	}
+
+	/**
+	 * Get the reply for a message from the cache.
+	 *
+	 * @param   message
+	 *          the inbound message.
+	 * @return  the reply to send; or {@code null} if there is no reply cached.
+	 */
+	synchronized DataSet get(DataSet message)
+	{
+		List<Object> key = this.requestKey.messageKey(message);
+		if (key == null)
+		{
+			return null;
+		}
+		Entry entry = this.entries.get(key);
+		if (entry != null && this.ttl > 0 &&
+				System.currentTimeMillis() - entry.created >= this.ttl)
+		{
+			this.remove(key, entry);
+			entry = null;
+		}
+		if (entry == null)
+		{
+			this.status.addCacheMiss();
+			return null;
+		}
+		this.status.addCacheHit();
+		return new ArrayDataSet(message)
+				.put(Context.REPLY, new ArrayDataSet(entry.reply))
+				.put(Context.CLOSE, true);
+	}
+
+	/**
+	 * Keep a reply in the cache.
+	 * <p>Replies with a {@code return} error, which leave the message open, or
+	 * to a message carrying credit, are not kept.
+	 *
+	 * @param   message
+	 *          the outbound reply.
+	 */
+	synchronized void put(DataSet message)
+	{
+		List<Object> key = this.requestKey.messageKey(message);
+		DataSet reply = message.getDataSet(Context.REPLY);
+		if (key == null || reply == null ||
+				message.contains(Context.RETURN) ||
+				!Boolean.TRUE.equals(message.getBoolean(Context.CLOSE)))
+		{
+			return;
+		}
+		Entry entry = new Entry(new ArrayDataSet(reply),
+				2L * (String.valueOf(key).length() + String.valueOf(reply).length()));
+		Entry previous = this.entries.put(key, entry);
+		if (previous != null)
+		{
+			this.bytes -= previous.bytes;
+		}
+		this.bytes += entry.bytes;
+		Iterator<Map.Entry<List<Object>, Entry>> eldest = this.entries.entrySet().iterator();
+		while (eldest.hasNext() &&
+				(this.entries.size() > this.maxEntries ||
+						(this.maxBytes > 0 && this.bytes > this.maxBytes)))
+		{
+			Entry evicted = eldest.next().getValue();
+			eldest.remove();
+			this.bytes -= evicted.bytes;
+			this.status.addCacheEviction();
+		}
+	}
+
+	private void remove(List<Object> key, Entry entry)
+	{
+		this.entries.remove(key);
+		this.bytes -= entry.bytes;
+		this.status.addCacheEviction();
+	}
+
+	/**
+	 * A cached reply.
+	 */
+	private static class Entry
+	{
+		private final DataSet reply;
+		private final long bytes;
+		private final long created;
+
+		private Entry(DataSet reply, long bytes)
+		{
+			this.reply = reply;
+			this.bytes = bytes;
+			this.created = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * RequestKey.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lexa.core.data.DataArray;
+import lexa.core.data.DataItem;
+import lexa.core.data.DataSet;
+import lexa.core.data.DataValue;
+import lexa.core.server.context.Context;
+
+/**
+ * Builds a key that identifies the requests a process would answer the same way.
+ * <p>The key is built from a list of request fields or, if there is no list,
+ * from the whole request.
+ * <p>Keys are compared with {@code equals}, and each value in a key keeps its
+ * type; so {@code 1} and {@code "1"} give different keys, as do a missing field
+ * and a field with no value.  The order of the fields in a request does not
+ * change its key.
+ * <p>Messages that are a system request, have no request or carry
+ * {@code credit} for a stream have no key.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class RequestKey
+{
+	/** stands in for a field missing from the request */
+	private static final Object MISSING = new Object();
+	/** the request fields that decide the reply; {@code null} for the whole request */
+	private final String[] fields;
+
+	/**
+	 * Create a key builder.
+	 *
+	 * @param   fields
+	 *          a space separated list of request fields;
+	 *          or {@code null} to use the whole request.
+	 */
+	RequestKey(String fields)
+	{
+		this.fields = fields == null ? null : fields.trim().split("\\s+");
+	}
+
+	/**
+	 * Get the key for a request.
+	 *
+	 * @param   request
+	 *          the request.
+	 * @return  the key for the request.
+	 */
+	List<Object> key(DataSet request)
+	{
+		if (this.fields == null)
+		{
+			return Arrays.asList(RequestKey.typed(request));
+		}
+		List<Object> key = new ArrayList<>(this.fields.length);
+		for (String field : this.fields)
+		{
+			key.add(request.contains(field) ?
+					RequestKey.typed(request.getObject(field)) :
+					RequestKey.MISSING);
+		}
+		return key;
+	}
+
+	/**
+	 * Get the key for the request in a message.
+	 *
+	 * @param   message
+	 *          the message.
+	 * @return  the key for the request;
+	 *          or {@code null} for a system request, a message without a request
+	 *          or a message carrying credit.
+	 */
+	List<Object> messageKey(DataSet message)
+	{
+		DataSet request = message.getDataSet(Context.REQUEST);
+		if (request == null ||
+				message.contains(Context.SYSTEM_REQUEST) ||
+				message.contains(Context.CREDIT))
+		{
+			return null;
+		}
+		return this.key(request);
+	}
+
+	/**
+	 * Get a value with its type, so that equal keys have equal types.
+	 *
+	 * @param   value
+	 *          a value from a request.
+	 * @return  the value, in a form that keeps its type.
+	 */
+	private static Object typed(Object value)
+	{
+		if (value == null)
+		{
+			return null;
+		}
+		if (value instanceof DataSet)
+		{
+			Map<String, Object> fields = new HashMap<>();
+			for (DataItem item : (DataSet)value)
+			{
+				fields.put(item.getKey(), RequestKey.typed(item.getObject()));
+			}
+			return fields;
+		}
+		if (value instanceof DataArray)
+		{
+			List<Object> values = new ArrayList<>();
+			for (DataValue item : (DataArray)value)
+			{
+				values.add(RequestKey.typed(item.getObject()));
+			}
+			return values;
+		}
+		return Arrays.asList(value.getClass(), value);
+	}
+}
@@ -12,6 +12,7 @@ package lexa.core.server;
 import lexa.core.process.ProcessException;
 import java.util.*;
 import lexa.core.data.config.ConfigDataSet;
+import lexa.core.data.DataArray;
 import lexa.core.data.DataSet;
 import lexa.core.data.DataType;
 import lexa.core.data.config.ConfigDataArray;
@@ -32,6 +33,8 @@ import lexa.core.server.messaging.*;
  * <p>The configuration for a service is:
  * <pre>
  * &lt;serviceName&gt; {
+ *   [type &lt;threadModel&gt;]
+ *   [pool &lt;poolName&gt;]
  *   [wildcard &lt;wildcardProcess&gt;]
  *   processList {
  *     &lt;processName&gt; {
@@ -45,6 +48,10 @@ import lexa.core.server.messaging.*;
  * <dl>
  * <dt>&lt;serviceName&gt;</dt><dd>a unique name within the broker for a service;
  *      the name {@code host} may not be used.</dd>
+ * <dt>&lt;threadModel&gt;</dt><dd>the thread model for the service and its processes;
+ *      [optional; default is the broker's thread model]</dd>
+ * <dt>&lt;poolName&gt;</dt><dd>a pool from the broker {@code poolList} to run the service on;
+ *      see {@link MessagingContainerFactory}. [optional]</dd>
  * <dt>&lt;wildcardProcess&gt;</dt><dd>the name of a process in the process list;
  *      unknown processes are rerouted to this process. [optional]</dd>
  * <dt>&lt;processName&gt;</dt><dd>a unique name within the service for a process.</dd>
@@ -65,14 +72,27 @@ public class Service
         return this.status;
     }
 
-	public static MessagingContainer container(ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary, boolean inline)
+	public static MessagingContainer container(ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory)
             throws DataException, ProcessException, ExpressionException
 	{
-		Service service =new Service(classLoader, config, functionLibrary, inline);
+		return Service.container(classLoader, config, functionLibrary, containerFactory,
+				Collections.<String, MessagingContainer>emptyMap());
+	}
+
+	/**
+	 * Create a service container that takes over some already running processes.
+	 * <p>Used when the broker is reloaded so that processes whose configuration
+	 * has not changed keep running; they are handed over to the new service
+	 * when it starts, so their replies pass through it.
+	 */
+	static MessagingContainer container(ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory,
+			Map<String, MessagingContainer> running)
+            throws DataException, ProcessException, ExpressionException
+	{
+		MessagingContainerFactory serviceFactory = containerFactory.forConfig(config);
+		Service service =new Service(classLoader, config, functionLibrary, serviceFactory, running);
 
-		return inline ?
-				new MessagingContainerInline(service) :
-				new MessagingContainerAsync(service);
+		return serviceFactory.container(service);
 	}
 
     /** logger for events */
@@ -85,6 +105,8 @@ public class Service
     private Broker messageBroker;
     /** The available processes */
     private final Map<String, MessagingContainer> processes;
+    /** The processes taken over already running */
+    private final Collection<MessagingContainer> running;
 	private MessagingContainer container;
 	private BrokerHandler broker;
 
@@ -100,7 +122,8 @@ public class Service
      * @throws  ProcessException
      *          when an exception occurs within the processes.
      */
-    private Service (ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary, boolean inline)
+    private Service (ClassLoader classLoader, ConfigDataSet config, FunctionLibrary functionLibrary, MessagingContainerFactory containerFactory,
+			Map<String, MessagingContainer> running)
             throws DataException, ProcessException, ExpressionException
 	{
         config.validateType(
@@ -112,6 +135,7 @@ public class Service
         this.status = new MessagingStatus(this.name);
         this.wildcard = config.get(Config.WILDCARD,null).getString();
         this.processes = new HashMap();
+        this.running = new ArrayList<>();
         ConfigDataArray processList = config.getArray(Config.PROCESS_LIST);
         for (int p=0; p < processList.size(); p++)
 		{
@@ -122,8 +146,12 @@ public class Service
 			{
                 throw new DataException("Config contains duplicate process: " + pn + "@" + name);
 			}
-            MessagingContainer pc =
-                    ProcessAgent.container(classLoader, processConfig, functionLibrary,inline);
+            MessagingContainer pc = running.get(pn);
+            if (pc != null) {
+                this.running.add(pc);
+            } else {
+                pc = ProcessAgent.container(classLoader, processConfig, functionLibrary, containerFactory);
+            }
             this.processes.put(pn, pc);
             this.status.addChild(pc.getHandler().getStatus());
             processConfig.close();
@@ -143,18 +171,25 @@ public class Service
 		this.container = container;
 		for (MessagingContainer pac : this.processes.values())
 		{
-			pac.start(this);
+			if (this.running.contains(pac))
+			{
+				pac.handOver(this);
+			}
+			else
+			{
+				pac.start(this);
+			}
 		}
         this.status.setActive(true);
 	}
 
 	@Override
-	public void inbound(DataSet message)
+	public void inbound(Envelope message)
 	{
 		// find out who this belongs to//
-        this.logger.message("MESSAGE_IO", "inbound" ,message,null);
+        this.logger.message("MESSAGE_IO", "inbound " + message, null, null);
         this.status.addReceived();
-		String process = message.getString(Context.MESSAGE);
+		String process = message.getMessage();
 		MessagingContainer  pac = this.processes.get(process);
         if (pac == null) {
             if (this.wildcard != null) {
@@ -169,6 +204,53 @@ public class Service
         pac.inbound(message);
 	}
 
+	/**
+	 * Get the processes for the service.
+	 * @return  the process containers by name.
+	 */
+	Map<String, MessagingContainer> getProcesses()
+	{
+		return Collections.unmodifiableMap(this.processes);
+	}
+
+	/**
+	 * Get the definition of each process in a service definition.
+	 * @param   definition
+	 *          the definition of the service
+	 * @return  the process definitions by name.
+	 */
+	static Map<String, DataSet> processDefinitions(DataSet definition)
+	{
+		Map<String, DataSet> definitions = new HashMap<>();
+		DataArray processList = definition.getArray(Config.PROCESS_LIST);
+		for (int p=0; p < processList.size(); p++)
+		{
+			DataSet process = processList.get(p).getDataSet();
+			definitions.put(process.getString(Config.NAME), process);
+		}
+		return definitions;
+	}
+
+	/**
+	 * Get the wildcard process for the service.
+	 * @return  the name of the wildcard process; or {@code null} if there is none.
+	 */
+	String getWildcard()
+	{
+		return this.wildcard;
+	}
+
+	/**
+	 * Account for a message the broker has routed straight to one of the processes.
+	 * @param   message
+	 *          the inbound message
+	 */
+	void routed(Envelope message)
+	{
+        this.logger.message("MESSAGE_IO", "routed " + message, null, null);
+        this.status.addReceived();
+	}
+
 	Connection getConnection(String connectionName)
 			throws ProcessException
 	{
@@ -182,16 +264,16 @@ public class Service
      * @param   returnMessage
      *          a message to return to the caller
      */
-    private void bounceBack(DataSet message, String returnMessage) {
-        this.logger.debug("bounceBack " + returnMessage , message);
-        message
+    private void bounceBack(Envelope message, String returnMessage) {
+        this.logger.debug("bounceBack " + returnMessage , message.getData());
+        message.getData()
 				.put(Context.RETURN, returnMessage)
 				.put(Context.CLOSE, true);
         this.outbound(message);
     }
 
 	@Override
-	public void outbound(DataSet message)
+	public void outbound(Envelope message)
 	{
         this.status.addReplied();
 		this.container.outbound(message);
@@ -0,0 +1,36 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * BackpressureException.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+
+/**
+ * Thrown when data cannot be sent because too much is already queued for the
+ * peer.
+ * <p>The session is still open and nothing was sent; the data can be sent
+ * again once the peer has caught up.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class BackpressureException
+		extends IOException
+{
+	/**
+	 * Create an exception with a message.
+	 *
+	 * @param   message
+	 *          the reason the data was not sent.
+	 */
+	BackpressureException(String message)
+	{
+		super(message);
+	}
+}
@@ -0,0 +1,274 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * BrokerListener.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import lexa.core.data.DataSet;
+import lexa.core.data.config.ConfigDataSet;
+import lexa.core.data.exception.DataException;
+import lexa.core.logging.Logger;
+import lexa.core.process.ProcessException;
+import lexa.core.server.context.Config;
+import lexa.core.server.context.Value;
+import lexa.core.server.messaging.IntHashMap;
+
+/**
+ * Accepts sessions from remote brokers and clients so they can use a broker.
+ * <p>The configuration for the listener is:
+ * <pre>
+ * listener {
+ *   port % &lt;port&gt;
+ *   [selectors % &lt;selectors&gt;]
+ * }
+ * </pre>
+ * <p>Where:
+ * <dl>
+ * <dt>&lt;port&gt;</dt><dd>the port to accept sessions on.</dd>
+ * <dt>&lt;selectors&gt;</dt><dd>the number of {@link WireSelector} threads that read
+ *      and write the sessions; [optional; default is 2]</dd>
+ * </dl>
+ * <p>A single thread accepts the sessions and hands each one to a selector in
+ * turn, so a few threads serve any number of clients.  Sessions use the binary
+ * {@link WireCodec}; the client's handshake is answered by the session.  Each
+ * channel of a session becomes a {@link ClientConnection} in the broker's
+ * {@link ConnectionList}, and is closed and removed when the client closes the
+ * channel or the session closes.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class BrokerListener
+		implements Runnable
+{
+	/** logger for events */
+	private final Logger logger;
+	/** the name of the broker */
+	private final String name;
+	/** the port to accept sessions on */
+	private final int port;
+	/** the connections for the broker */
+	private final ConnectionList connectionList;
+	/** the selectors serving the sessions */
+	private final WireSelector[] selectors;
+	/** the sessions that are open */
+	private final Set<WireSession> sessions;
+	/** the socket accepting sessions; {@code null} until started */
+	private ServerSocketChannel server;
+	/** the selector for the next session */
+	private int nextSelector;
+
+	/**
+	 * Create a listener from its configuration.
+	 *
+	 * @param   name
+	 *          the name of the broker.
+	 * @param   config
+	 *          the configuration for the listener.
+	 * @param   connectionList
+	 *          the connections for the broker.
+	 * @throws  DataException
+	 *          when there is a problem in the configuration.
+	 */
+	public BrokerListener(String name, ConfigDataSet config, ConnectionList connectionList)
+			throws DataException
+	{
+		this.name = name;
+		this.logger = new Logger(BrokerListener.class.getSimpleName(), name);
+		this.port = config.getInteger(Config.PORT);
+		if (this.port < 0 || this.port > 0xffff)
+		{
+			throw new DataException("Config listener port is not valid: " + this.port + "@" + name);
+		}
+		int selectorCount = config.get(Config.SELECTORS, Value.DEFAULT_SELECTORS).getInteger();
+		if (selectorCount < 1)
+		{
+			throw new DataException("Config selectors must be at least 1: " + name);
+		}
+		config.close();
+		this.selectors = new WireSelector[selectorCount];
+		this.sessions = new HashSet<>();
+		this.connectionList = connectionList;
+	}
+
+	/**
+	 * Start accepting sessions.
+	 *
+	 * @throws  ProcessException
+	 *          when the port cannot be opened.
+	 */
+	public synchronized void start()
+			throws ProcessException
+	{
+		try
+		{
+			this.server = ServerSocketChannel.open();
+			this.server.socket().setReuseAddress(true);
+			this.server.bind(new InetSocketAddress(this.port));
+			for (int s = 0; s < this.selectors.length; s++)
+			{
+				this.selectors[s] = new WireSelector(this.name + "-selector-" + s);
+			}
+		}
+		catch (IOException ex)
+		{
+			this.close();
+			throw new ProcessException("Unable to listen on port " + this.port, ex);
+		}
+		Thread acceptor = new Thread(this, this.name + "-listener");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		this.logger.info("listening on port " + this.getPort());
+	}
+
+	/**
+	 * Get the port the listener accepts sessions on.
+	 *
+	 * @return  the port; or the configured port if not started.
+	 */
+	public synchronized int getPort()
+	{
+		return this.server == null || !this.server.isOpen() ?
+				this.port :
+				this.server.socket().getLocalPort();
+	}
+
+	@Override
+	public void run()
+	{
+		ServerSocketChannel accepting;
+		synchronized (this)
+		{
+			accepting = this.server;
+		}
+		while (accepting.isOpen())
+		{
+			try
+			{
+				SocketChannel socket = accepting.accept();
+				socket.configureBlocking(false);
+				socket.socket().setTcpNoDelay(true);
+				this.accepted(socket);
+			}
+			catch (ClosedChannelException ex)
+			{
+				// closed by the broker
+			}
+			catch (IOException ex)
+			{
+				this.logger.error("accept failed", ex);
+			}
+		}
+		this.logger.info("stopped listening");
+	}
+
+	/**
+	 * Serve a new session.
+	 *
+	 * @param   socket
+	 *          the non-blocking socket for the session.
+	 */
+	private void accepted(SocketChannel socket)
+	{
+		WireSelector selector = this.selectors[this.nextSelector];
+		this.nextSelector = (this.nextSelector + 1) % this.selectors.length;
+		WireSession session = new WireSession(this.name, socket, 0, selector);
+		IntHashMap<ClientConnection> connections = new IntHashMap<>();
+		session.setChannelFactory((int channel) ->
+		{
+			ClientConnection connection = this.connectionList.newClientConnection(session, channel);
+			synchronized (connections)
+			{
+				connections.put(channel, connection);
+			}
+			return (Consumer<DataSet>)connection::received;
+		});
+		session.setChannelCloseListener((int channel) ->
+		{
+			ClientConnection connection;
+			synchronized (connections)
+			{
+				connection = connections.remove(channel);
+			}
+			if (connection != null)
+			{
+				// closes any messages the client left open
+				connection.close();
+				this.connectionList.remove(connection);
+			}
+		});
+		session.addCloseListener(() ->
+		{
+			synchronized (this.sessions)
+			{
+				this.sessions.remove(session);
+			}
+			synchronized (connections)
+			{
+				for (int channel : connections.keys())
+				{
+					ClientConnection connection = connections.remove(channel);
+					// closes the client's open messages in the broker
+					connection.close();
+					this.connectionList.remove(connection);
+				}
+			}
+		});
+		synchronized (this.sessions)
+		{
+			this.sessions.add(session);
+		}
+		this.logger.info("accepted session from " + socket.socket().getRemoteSocketAddress());
+		selector.register(session);
+	}
+
+	/**
+	 * Stop accepting sessions, close the open sessions and stop the selectors.
+	 */
+	public synchronized void close()
+	{
+		if (this.server != null)
+		{
+			try
+			{
+				this.server.close();
+			}
+			catch (IOException ex)
+			{
+				this.logger.error("close failed", ex);
+			}
+		}
+		List<WireSession> open;
+		synchronized (this.sessions)
+		{
+			open = new ArrayList<>(this.sessions);
+		}
+		for (WireSession session : open)
+		{
+			session.close();
+		}
+		for (int s = 0; s < this.selectors.length; s++)
+		{
+			if (this.selectors[s] != null)
+			{
+				this.selectors[s].close();
+				this.selectors[s] = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * ClientConnection.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataSet;
+import lexa.core.data.exception.DataException;
+import lexa.core.server.Broker;
+import lexa.core.server.context.Context;
+import lexa.core.server.context.Value;
+import lexa.core.server.messaging.Envelope;
+import lexa.core.server.messaging.IntHashMap;
+
+/**
+ * A connection into the {@link Broker} for a client accepted by its
+ * {@link BrokerListener}.
+ * <p>Each connection on the client's side of a session has its own channel, and
+ * each channel has its own client connection.  Messages read from the channel
+ * are passed straight to the broker, with the client's connection id replaced
+ * by this connection's id so the replies find their way back; the replies are
+ * given the client's id again and written to the same channel.
+ * <p>The client keeps track of its messages and their timeouts.  The connection
+ * only keeps the messages that are still open, so that if the session is lost
+ * they are closed in the broker rather than left with their processes.
+ * <p>A reply is never dropped while the session stays open: if the client is
+ * so far behind that the session will not queue the reply, the session is
+ * closed, so the client sees its link fail and resends or fails its messages.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class ClientConnection
+		extends Connection
+{
+	/** the session to the client */
+	private final WireSession session;
+	/** the channel for the client's connection */
+	private final int channel;
+	/** the id of the connection on the client's side */
+	private volatile int clientId;
+	/** the messages from the client that are still open, by source id */
+	private final IntHashMap<DataSet> open;
+
+	/**
+	 * Create a connection for a channel from a client.
+	 *
+	 * @param   broker
+	 *          the broker for the connection to submit messages.
+	 * @param   id
+	 *          the unique id for the connection.
+	 * @param   session
+	 *          the session to the client.
+	 * @param   channel
+	 *          the channel for the client's connection.
+	 * @param   timer
+	 *          expiry service for the messages.
+	 */
+	ClientConnection(Broker broker, int id, WireSession session, int channel, MessageTimer timer)
+	{
+		super(broker, "client", id, timer);
+		this.session = session;
+		this.channel = channel;
+		this.open = new IntHashMap<>();
+	}
+
+	/**
+	 * Pass data read from the client to the broker; called on the selector's
+	 * thread.
+	 *
+	 * @param   data
+	 *          a message, or a {@code messageList} of messages, from the client.
+	 */
+	void received(DataSet data)
+	{
+		DataSet messageList = data.getDataSet(Context.MESSAGE_LIST);
+		if (messageList == null || data.contains(Context.SERVICE))
+		{
+			this.getBroker().inbound(new Envelope(this.fromClient(data)));
+			return;
+		}
+		List<Envelope> envelopes = new ArrayList<>(messageList.size());
+		for (int m = 0; m < messageList.size(); m++)
+		{
+			DataSet message = messageList.getDataSet(Integer.toString(m));
+			if (message != null)
+			{
+				envelopes.add(new Envelope(this.fromClient(message)));
+			}
+		}
+		this.getBroker().inboundAll(envelopes);
+	}
+
+	/**
+	 * Give a message from the client this connection's id.
+	 *
+	 * @param   data
+	 *          a message from the client.
+	 * @return  the message.
+	 */
+	private DataSet fromClient(DataSet data)
+	{
+		Integer cid = data.getInteger(Context.CONNECTION_ID);
+		if (cid != null)
+		{
+			this.clientId = cid;
+		}
+		Integer sid = data.getInteger(Context.SOURCE_ID);
+		if (sid != null)
+		{
+			String systemRequest = data.getString(Context.SYSTEM_REQUEST);
+			synchronized (this.open)
+			{
+				if (systemRequest == null)
+				{
+					this.open.put(sid, data);
+				}
+				else if (Value.CLOSE_MESSAGE.equals(systemRequest))
+				{
+					this.open.remove(sid);
+				}
+			}
+		}
+		return data.put(Context.CONNECTION_ID, this.getId());
+	}
+
+	/**
+	 * Send a reply from the broker back to the client.
+	 *
+	 * @param   envelope
+	 *          The reply to a message.
+	 */
+	@Override
+	public void reply(Envelope envelope)
+	{
+		if (Boolean.TRUE.equals(envelope.getData().getBoolean(Context.CLOSE)))
+		{
+			synchronized (this.open)
+			{
+				this.open.remove(envelope.getSourceId());
+			}
+		}
+		// copied, as the process may still hold the reply
+		DataSet reply = new ArrayDataSet(envelope.getData())
+				.put(Context.CONNECTION_ID, this.clientId);
+		try
+		{
+			this.session.send(this.channel, reply);
+		}
+		catch (BackpressureException ex)
+		{
+			this.logger.error("client is not keeping up, closing the session", reply, ex);
+			this.session.close();
+		}
+		catch (DataException | IOException ex)
+		{
+			this.logger.error("reply send failed", reply, ex);
+		}
+	}
+
+	/**
+	 * Close the messages from the client that are still open; called when the
+	 * session is lost or the broker closes.
+	 */
+	@Override
+	public void close()
+	{
+		List<DataSet> messages = new ArrayList<>();
+		synchronized (this.open)
+		{
+			for (int sid : this.open.keys())
+			{
+				messages.add(this.open.remove(sid));
+			}
+		}
+		for (DataSet message : messages)
+		{
+			DataSet close = new ArrayDataSet()
+					.put(Context.SERVICE, message.getString(Context.SERVICE))
+					.put(Context.MESSAGE, message.getString(Context.MESSAGE))
+					.put(Context.CONNECTION_ID, this.getId())
+					.put(Context.SOURCE_ID, message.getInteger(Context.SOURCE_ID))
+					.put(Context.SYSTEM_REQUEST, Value.CLOSE_MESSAGE);
+			this.getBroker().inbound(new Envelope(close, message.getDataSet(Context.REQUEST)));
+		}
+		super.close();
+	}
+
+	@Override
+	void inbound(Envelope envelope)
+	{
+		this.getBroker().inbound(envelope);
+	}
+
+	@Override
+	void start()
+	{
+		// the session passes data from the client
+	}
+}
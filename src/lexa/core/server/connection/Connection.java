@@ -9,12 +9,20 @@
  */
 package lexa.core.server.connection;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 import lexa.core.data.DataSet;
 import lexa.core.data.ArrayDataSet;
 import lexa.core.logging.Logger;
 import lexa.core.server.Broker;
+import lexa.core.server.messaging.Envelope;
+import lexa.core.server.messaging.IntHashMap;
 import lexa.core.server.messaging.Message;
 import lexa.core.server.context.Context;
 import lexa.core.server.context.Value;
@@ -22,6 +30,8 @@ import lexa.core.server.context.Value;
 /**
  * A connection into the {@link Broker} for submitting messages.
  * <p>Connections are created by the broker and used by the external process to submit messages.
+ * <p>Replies can be read from the {@link Message}, or passed to a listener or
+ * future as the message closes; see {@link #submitAsync(Message)}.
  *
  * @since   2013.04
  * @author  William NW
@@ -35,16 +45,25 @@ public abstract class Connection {
     /** the broker for submitting messages */
     private final Broker broker;
     /** the current messages for the connection. */
-    private final Map<Integer,Message> messages;
+    private final IntHashMap<Message> messages;
     /** the id of the last message sent */
     private int lastMessage;
+    /** expiry service for the messages */
+    private final MessageTimer timer;
+    /** the timeouts for the current messages */
+    private final IntHashMap<MessageTimer.Timeout> timeouts;
+    /** the listeners for the current messages that have one */
+    private final IntHashMap<BiConsumer<DataSet, Throwable>> listeners;
 
-	Connection(Broker broker,String name,  int id) {
+	Connection(Broker broker,String name,  int id, MessageTimer timer) {
 		this.logger = new Logger(Connection.class.getSimpleName(), name + "#" + id);
 		this.broker = broker;
 		this.id = id;
-        this.messages = new HashMap<Integer, Message>();
+        this.messages = new IntHashMap<Message>();
         this.lastMessage = 0;
+        this.timer = timer;
+        this.timeouts = new IntHashMap<MessageTimer.Timeout>();
+        this.listeners = new IntHashMap<BiConsumer<DataSet, Throwable>>();
 	}
 
     /**
@@ -53,31 +72,69 @@ public abstract class Connection {
      * @param   reply
      *          The reply to a message.
      */
-    public synchronized void reply(DataSet reply) {
-        int sid = reply.getInteger(Context.SOURCE_ID);
-        Message message = this.messages.get(sid);
-        if (message == null) {
-            return;
-        }
-        message.addReply(reply);
+    public void reply(DataSet reply) {
+        this.reply(new Envelope(reply));
+    }
+
+    /**
+     * Add a reply for a message from within the broker.
+     *
+     * @param   envelope
+     *          The reply to a message.
+     */
+    public void reply(Envelope envelope) {
+        int sid = envelope.getSourceId();
+        Message message;
+        BiConsumer<DataSet, Throwable> listener = null;
+        synchronized (this) {
+            message = this.messages.get(sid);
+            if (message == null) {
+                return;
+            }
+            DataSet reply = envelope.getData();
+            message.addReply(reply);
 
-        if (reply.getBoolean(Context.CLOSE)) {
-            this.messages.remove(sid);
+            if (Boolean.TRUE.equals(reply.getBoolean(Context.CLOSE))) {
+                this.messages.remove(sid);
+                this.timer.cancel(this.timeouts.remove(sid));
+                listener = this.listeners.remove(sid);
+            }
+        }
+        // outside the lock, as the listener may submit further messages
+        if (listener != null) {
+            listener.accept(message.getReply(), null);
         }
     }
 
     /**
      * Notify the connection that a message has timed out
+     * <p>The message's listener is told of the timeout even if replying to
+     * or closing the message fails.
      * @param   sid
      *          the id of the message
      */
     public void timeout(int sid) {
-        DataSet timeoutMessage = new ArrayDataSet()
-				.put(Context.SOURCE_ID,sid)
-				.put(Context.RETURN,"message timed out with no response");
-		this.logger.error("message timeout", timeoutMessage,null);
-        this.reply(timeoutMessage);
-        this.closeMessage(sid);
+        BiConsumer<DataSet, Throwable> listener = null;
+        try {
+            synchronized (this) {
+                if (!this.messages.containsKey(sid)) {
+                    return; // closed while the timeout was being raised
+                }
+                this.timeouts.remove(sid);
+                listener = this.listeners.remove(sid);
+                DataSet timeoutMessage = new ArrayDataSet()
+                        .put(Context.SOURCE_ID,sid)
+                        .put(Context.RETURN,"message timed out with no response");
+                this.logger.error("message timeout", timeoutMessage,null);
+                this.reply(timeoutMessage);
+                this.closeMessage(sid);
+            }
+        } finally {
+            // outside the lock, as the listener may submit further messages
+            if (listener != null) {
+                listener.accept(null, new TimeoutException("message timed out with no response"));
+            }
+        }
     }
 
 	public Integer getId() {
@@ -94,6 +151,9 @@ public abstract class Connection {
      * There is no guarantee that all the session ids will be unique across
      * different sessions, but the connection and session ids together will
      * always be unique for the life of the broker..
+     * <p>A message without a deadline is given one from the broker's timeout;
+     * the deadline goes in the header so later hops can drop the message once
+     * the caller has given up on it.
 
      * @param   message
      *          a {@link Message} to submit for processing.
@@ -102,21 +162,165 @@ public abstract class Connection {
     public synchronized int submit(Message message)
 	{
         int sid = ++this.lastMessage;
-        DataSet request = message.getRequest(this.getId(), sid);
+        if (message.getDeadline() == 0 && this.timer.getTimeout() > 0) {
+            message.setDeadline(System.currentTimeMillis() + this.timer.getTimeout());
+        }
+        Envelope request = message.getEnvelope(this.getId(), sid, null);
+        if (message.isStreaming()) {
+            message.setConnection(this);
+        }
         this.messages.put(sid,message);
+        MessageTimer.Timeout timeout = this.timer.schedule(this, sid, message.getDeadline());
+        if (timeout != null) {
+            this.timeouts.put(sid, timeout);
+        }
         this.inbound(request);
 		return sid;
 	}
 
+    /**
+     * Submit a batch of messages to the message broker.
+     * <p>The messages are given consecutive session ids, in the order of the
+     * collection, and passed to the broker together; this takes the connection's
+     * lock and wakes the broker once rather than for each message.
+     *
+     * @param   messages
+     *          the {@link Message}s to submit for processing.
+     * @return  the session id for the first message; the rest follow on from it.
+     */
+    public synchronized int submitAll(Collection<Message> messages)
+    {
+        int first = this.lastMessage + 1;
+        if (messages.isEmpty()) {
+            return first;
+        }
+        long deadline = this.timer.getTimeout() > 0 ?
+                System.currentTimeMillis() + this.timer.getTimeout() :
+                0;
+        List<Envelope> requests = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            int sid = ++this.lastMessage;
+            if (message.getDeadline() == 0 && deadline != 0) {
+                message.setDeadline(deadline);
+            }
+            requests.add(message.getEnvelope(this.getId(), sid, null));
+            if (message.isStreaming()) {
+                message.setConnection(this);
+            }
+            this.messages.put(sid, message);
+            MessageTimer.Timeout timeout = this.timer.schedule(this, sid, message.getDeadline());
+            if (timeout != null) {
+                this.timeouts.put(sid, timeout);
+            }
+        }
+        this.inboundAll(requests);
+        return first;
+    }
+
+    /**
+     * Submit a message to the message broker and be told when it closes.
+     * <p>The listener is called once, on the thread that delivers the closing
+     * reply, with the reply to the message.  If the message times out it is
+     * called with a {@link TimeoutException}, and if the message is closed
+     * first with a {@link CancellationException}.
+     *
+     * @param   message
+     *          a {@link Message} to submit for processing.
+     * @param   listener
+     *          called with either the reply or the reason there is none.
+     * @return  the session id for the message.
+     */
+    public int submit(Message message, BiConsumer<DataSet, Throwable> listener)
+    {
+        synchronized (this) {
+            // registered first, so a fast reply still finds it
+            this.listeners.put(this.lastMessage + 1, listener);
+            return this.submit(message);
+        }
+    }
+
+    /**
+     * Submit a message to the message broker for a future reply.
+     * <p>The future completes with the reply when the message closes.  It
+     * completes exceptionally with a {@link TimeoutException} if the message
+     * times out; cancelling the future closes the message.
+     * <p>The future is completed on the thread that delivers the reply, so
+     * dependent stages should be quick or use an executor of their own.
+     *
+     * @param   message
+     *          a {@link Message} to submit for processing.
+     * @return  the future reply.
+     */
+    public CompletableFuture<DataSet> submitAsync(Message message)
+    {
+        CompletableFuture<DataSet> future = new CompletableFuture<>();
+        int sid = this.submit(message, (DataSet reply, Throwable ex) -> {
+            if (ex == null) {
+                future.complete(reply);
+            } else {
+                future.completeExceptionally(ex);
+            }
+        });
+        future.whenComplete((DataSet reply, Throwable ex) -> {
+            if (future.isCancelled()) {
+                this.closeMessage(sid);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Submit a message to the message broker for a future reply within a period.
+     * <p>The message is given a deadline, so the broker also drops it once the
+     * period has passed; otherwise as {@link #submitAsync(Message)}.
+     *
+     * @param   message
+     *          a {@link Message} to submit for processing.
+     * @param   timeout
+     *          the longest to wait for the reply.
+     * @param   unit
+     *          the unit of the timeout.
+     * @return  the future reply.
+     */
+    public CompletableFuture<DataSet> submitAsync(Message message, long timeout, TimeUnit unit)
+    {
+        message.setDeadline(System.currentTimeMillis() + unit.toMillis(timeout));
+        return this.submitAsync(message);
+    }
+
+    /**
+     * Grant credit for more chunks of a streamed reply.
+     * <p>Called by the {@link Message} as its chunks are read; the process
+     * replying to the message holds back further chunks until it has credit.
+     *
+     * @param   sid
+     *          the session id for the message.
+     * @param   credit
+     *          the number of further chunks the caller will accept.
+     */
+    public synchronized void grantCredit(int sid, int credit) {
+        Message message = this.messages.get(sid);
+        if (message == null) {
+            return; // closed, so no more chunks are wanted
+        }
+        DataSet grant = message.getHeader(this.getId(), sid)
+                .put(Context.SYSTEM_REQUEST, Value.CREDIT)
+                .put(Context.CREDIT, credit);
+        this.inbound(new Envelope(grant));
+    }
+
     /**
      * Close the connection.
      */
-	public synchronized void close()
+	public void close()
 	{
-        if (this.messages.isEmpty()) {
-            return;
+        int[] keys;
+        synchronized (this) {
+            if (this.messages.isEmpty()) {
+                return;
+            }
+            keys = this.messages.keys();
         }
-        Integer[] keys = this.messages.keySet().toArray(new Integer[0]);
         for (int k = 0;
                 k < keys.length;
                 k++) {
@@ -130,25 +334,43 @@ public abstract class Connection {
      * @param   sid
      *          the session id for the message.
      */
-    public synchronized void closeMessage(int sid) {
-        // this should submit a message back to the host.
-        Message message = this.messages.remove(sid);
-        if (message == null) {
-            return;
+    public void closeMessage(int sid) {
+        BiConsumer<DataSet, Throwable> listener;
+        synchronized (this) {
+            // this should submit a message back to the host.
+            Message message = this.messages.remove(sid);
+            if (message == null) {
+                return;
+            }
+            this.timer.cancel(this.timeouts.remove(sid));
+            listener = this.listeners.remove(sid);
+            this.inbound(message.getEnvelope(this.getId(), sid, Value.CLOSE_MESSAGE));
+            message.close();
+        }
+        if (listener != null) {
+            listener.accept(null, new CancellationException("message closed before a reply"));
         }
-        DataSet close = message.getHeader(this.getId(), sid);
-
-        close.put(Context.SYSTEM_REQUEST, Value.CLOSE_MESSAGE);
-        this.inbound(close);
-        message.close();
     }
 
 	/**
 	 * Send a message to the inbound processor
-	 * @param	data
-	 *			the message data being submitted
+	 * @param	envelope
+	 *			the message being submitted
 	 */
-	abstract void inbound(DataSet data);
+	abstract void inbound(Envelope envelope);
+
+	/**
+	 * Send a batch of messages to the inbound processor
+	 * @param	envelopes
+	 *			the messages being submitted, in order
+	 */
+	void inboundAll(List<Envelope> envelopes)
+	{
+		for (Envelope envelope : envelopes)
+		{
+			this.inbound(envelope);
+		}
+	}
 
 	abstract void start();
 }
@@ -16,11 +16,11 @@
 package lexa.core.server.connection;
 
 import java.util.HashMap;
-import java.util.Map;
 import lexa.core.data.config.ConfigDataSet;
 import lexa.core.data.exception.DataException;
 import lexa.core.server.Broker;
 import lexa.core.server.context.Value;
+import lexa.core.server.messaging.IntHashMap;
 import lexa.core.process.ProcessException;
 
 /**
@@ -34,13 +34,16 @@ public class ConnectionList
 	/** the config for all the remote hosts */
 	private final HashMap<String, RemoteHost> remoteHosts;
     /** All active connections */
-    private final Map<Integer, Connection> connections;
+    private final IntHashMap<Connection> connections;
 
 	private Broker broker;
+	/** expiry service for messages on all the connections */
+	private final MessageTimer timer;
 
-	public ConnectionList(ConfigDataSet config)
+	public ConnectionList(ConfigDataSet config, MessageTimer timer)
 			throws DataException
 	{
+		this.timer = timer;
         //load the list of remote hosts:
         this.remoteHosts = new HashMap<String, RemoteHost>();
         if (config != null) {
@@ -59,7 +62,7 @@ public class ConnectionList
         }
 
 		this.lastSessionId = 0;
-        this.connections = new HashMap<Integer, Connection>();
+        this.connections = new IntHashMap<Connection>();
 	}
 
 	public synchronized Connection newConnection(String connectionName) throws ProcessException
@@ -67,26 +70,55 @@ public class ConnectionList
         int id = ++this.lastSessionId;
         Connection connection;
         if (Value.LOCAL.equals(connectionName)) {
-            connection = new LocalConnection(this.broker, id);
+            connection = new LocalConnection(this.broker, id, this.timer);
         } else {
             RemoteHost remote = this.remoteHosts.get(connectionName);
 
             if(remote == null) {
                 throw new ProcessException("Unknown connection destination " + connectionName);
             }
-            connection = new RemoteConnection(this.broker, id, remote);
+            connection = new RemoteConnection(this.broker, id, remote, this.timer);
         }
         this.connections.put(connection.getId(),connection);
 		connection.start();
         return connection;
 	}
 
-	public Connection getConnection(int connection)
+    /**
+     * Create a connection for a channel from a client of the broker's
+     * {@link BrokerListener}.
+     *
+     * @param   session
+     *          the session to the client.
+     * @param   channel
+     *          the channel for the client's connection.
+     * @return  a new connection for the channel.
+     */
+    synchronized ClientConnection newClientConnection(WireSession session, int channel)
+    {
+        int id = ++this.lastSessionId;
+        ClientConnection connection = new ClientConnection(this.broker, id, session, channel, this.timer);
+        this.connections.put(id, connection);
+        return connection;
+    }
+
+    /**
+     * Remove a connection that has closed.
+     *
+     * @param   connection
+     *          the connection to remove.
+     */
+    synchronized void remove(Connection connection)
+    {
+        this.connections.remove(connection.getId());
+    }
+
+	public synchronized Connection getConnection(int connection)
 	{
 		return this.connections.get(connection);
 	}
 
-	public void close()
+	public synchronized void close()
 	{
         // tell the connections you're dead:
         for (Connection c : this.connections.values()) {
@@ -0,0 +1,99 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * LegacyLink.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+import lexa.core.comms.Session;
+import lexa.core.comms.SessionListener;
+import lexa.core.data.DataSet;
+import lexa.core.data.exception.DataException;
+
+/**
+ * A link to a remote broker using a {@link Session} and its original format.
+ * <p>Used for peers that do not support the {@link WireCodec}.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class LegacyLink
+		implements RemoteLink,
+				SessionListener
+{
+	/** the session to the remote broker */
+	private final Session session;
+	/** called with each data set received */
+	private volatile Consumer<DataSet> listener;
+	/** indicate if the link has been closed */
+	private volatile boolean closed;
+
+	/**
+	 * Create a link over a session.
+	 *
+	 * @param   session
+	 *          the session to the remote broker.
+	 */
+	LegacyLink(Session session)
+	{
+		this.session = session;
+	}
+
+	@Override
+	public void send(DataSet data)
+			throws DataException, IOException
+	{
+		this.session.send(data);
+	}
+
+	@Override
+	public void setListener(Consumer<DataSet> listener)
+	{
+		this.listener = listener;
+		this.session.setSessionListener(this);
+	}
+
+	@Override
+	public void setCloseListener(Runnable listener)
+	{
+		// the original session does not report closing; a lost link is found
+		// when sending fails
+	}
+
+	@Override
+	public boolean isBatching()
+	{
+		// the original format has no message lists
+		return false;
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		// each link has a session of its own
+		return !this.closed;
+	}
+
+	@Override
+	public void message(Session session, DataSet data)
+	{
+		Consumer<DataSet> current = this.listener;
+		if (current != null)
+		{
+			current.accept(data);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		this.closed = true;
+		this.session.close();
+	}
+}
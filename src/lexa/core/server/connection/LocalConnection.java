@@ -9,9 +9,10 @@
  */
 package lexa.core.server.connection;
 
-import lexa.core.data.DataSet;
+import java.util.List;
 import lexa.core.server.Broker;
 import lexa.core.server.context.Value;
+import lexa.core.server.messaging.Envelope;
 
 /**
  * A connection into the {@link Broker} for submitting messages.
@@ -30,15 +31,23 @@ public class LocalConnection
      *          the broker for the connection to submit messages.
      * @param   id
      *          the unique id for the connection.
+     * @param   timer
+     *          expiry service for the messages.
      */
-    LocalConnection(Broker broker, int id) {
-        super(broker, Value.LOCAL, id);
+    LocalConnection(Broker broker, int id, MessageTimer timer) {
+        super(broker, Value.LOCAL, id, timer);
     }
 
 	@Override
-	void inbound(DataSet data)
+	void inbound(Envelope envelope)
 	{
-		this.getBroker().inbound(data);
+		this.getBroker().inbound(envelope);
+	}
+
+	@Override
+	void inboundAll(List<Envelope> envelopes)
+	{
+		this.getBroker().inboundAll(envelopes);
 	}
 
 	@Override
@@ -0,0 +1,395 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * MessageTimer.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.util.concurrent.TimeUnit;
+import lexa.core.logging.Logger;
+
+/**
+ * Expiry service for messages in flight on a {@link Connection}.
+ * <p>Timeouts are held in a hierarchical timing wheel of {@link #LEVELS} levels,
+ * each of {@link #SLOTS} slots.  A timeout is placed in the lowest level whose
+ * span covers its deadline and is moved down a level each time the level above
+ * turns over.  Adding and cancelling a timeout are constant time and a tick only
+ * looks at the one slot that is due, however many messages are in flight.
+ * <p>A single thread advances the wheel every {@code tick} milliseconds and calls
+ * {@link Connection#timeout(int)} for each message that has expired.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class MessageTimer
+		implements Runnable
+{
+	/** bits used to index the slots in a level */
+	private static final int SLOT_BITS = 8;
+	/** number of slots in each level */
+	private static final int SLOTS = 1 << MessageTimer.SLOT_BITS;
+	/** mask for the slot index */
+	private static final int SLOT_MASK = MessageTimer.SLOTS - 1;
+	/** number of levels in the wheel */
+	private static final int LEVELS = 4;
+	/** the furthest ahead, in ticks, that a timeout can be placed */
+	private static final long MAX_SPAN = (1L << (MessageTimer.SLOT_BITS * MessageTimer.LEVELS)) - 1;
+
+	/** logger for events */
+	private final Logger logger;
+	/** the name of the broker */
+	private final String name;
+	/** the default period in milliseconds before a message expires */
+	private final int timeout;
+	/** milliseconds per tick */
+	private final int tick;
+	/** the head of the list for each slot, by level and then slot */
+	private final Timeout[][] wheel;
+	/** the time, from {@link System#nanoTime()}, of tick zero */
+	private final long startTime;
+	/** the number of ticks processed */
+	private long currentTick;
+	/** the number of timeouts in the wheel */
+	private int size;
+	/** the thread advancing the wheel */
+	private Thread thread;
+	/** Indicate if the timer is in a running state */
+	private volatile boolean running;
+
+	/**
+	 * Create a timer for a broker.
+	 *
+	 * @param   name
+	 *          the name of the broker.
+	 * @param   timeout
+	 *          the default period in milliseconds before a message expires;
+	 *          {@code 0} for no timeout.
+	 * @param   tick
+	 *          milliseconds per tick.
+	 */
+	public MessageTimer(String name, int timeout, int tick)
+	{
+		this.logger = new Logger(MessageTimer.class.getSimpleName(), name);
+		this.name = name;
+		this.timeout = timeout;
+		this.tick = tick;
+		this.wheel = new Timeout[MessageTimer.LEVELS][MessageTimer.SLOTS];
+		for (int l = 0; l < MessageTimer.LEVELS; l++)
+		{
+			for (int s = 0; s < MessageTimer.SLOTS; s++)
+			{
+				Timeout head = new Timeout(null, 0, 0);
+				head.previous = head;
+				head.next = head;
+				this.wheel[l][s] = head;
+			}
+		}
+		this.startTime = System.nanoTime();
+		this.currentTick = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Start the thread that advances the wheel.
+	 */
+	public synchronized void start()
+	{
+		if (this.timeout <= 0 || this.thread != null)
+		{
+			return;
+		}
+		this.running = true;
+		this.thread = new Thread(this, this.name + "-timer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stop the thread that advances the wheel.
+	 */
+	public synchronized void close()
+	{
+		this.running = false;
+		if (this.thread != null)
+		{
+			this.thread.interrupt();
+			this.thread = null;
+		}
+	}
+
+	/**
+	 * Get the default period before a message expires.
+	 *
+	 * @return  the period in milliseconds; {@code 0} for no timeout.
+	 */
+	public int getTimeout()
+	{
+		return this.timeout;
+	}
+
+	/**
+	 * Get the number of messages being timed.
+	 *
+	 * @return  the number of timeouts in the wheel.
+	 */
+	public synchronized int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Start timing a message.
+	 * <p>The message expires after the default timeout or at its own deadline,
+	 * whichever is sooner.
+	 *
+	 * @param   connection
+	 *          the connection that submitted the message.
+	 * @param   sid
+	 *          the id of the message on the connection.
+	 * @param   deadline
+	 *          the time, in milliseconds since the epoch, that the message expires;
+	 *          or {@code 0} to use the default timeout.
+	 * @return  the timeout for the message;
+	 *          or {@code null} if messages do not time out.
+	 */
+	Timeout schedule(Connection connection, int sid, long deadline)
+	{
+		if (this.timeout <= 0)
+		{
+			return null;
+		}
+		long period = deadline == 0 ?
+				this.timeout :
+				Math.min(this.timeout, deadline - System.currentTimeMillis());
+		Timeout timeout = new Timeout(connection, sid, this.now() + period);
+		synchronized (this)
+		{
+			this.add(timeout, this.currentTick + 1);
+			this.size++;
+		}
+		return timeout;
+	}
+
+	/**
+	 * Stop timing a message.
+	 *
+	 * @param   timeout
+	 *          the timeout for the message; may be {@code null}.
+	 */
+	void cancel(Timeout timeout)
+	{
+		if (timeout == null)
+		{
+			return;
+		}
+		synchronized (this)
+		{
+			if (timeout.previous != null)
+			{
+				timeout.unlink();
+				this.size--;
+			}
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		this.logger.info("timer started");
+		while (this.running)
+		{
+			try
+			{
+				Timeout expired;
+				synchronized (this)
+				{
+					expired = this.advance(this.now() / this.tick);
+				}
+				// notify outside the lock as the connections take their own
+				while (expired != null)
+				{
+					Timeout next = expired.next;
+					expired.next = null;
+					expired.connection.timeout(expired.sid);
+					expired = next;
+				}
+				Thread.sleep(this.tick);
+			}
+			catch (InterruptedException ex)
+			{
+				// woken by close
+			}
+			catch (RuntimeException ex)
+			{
+				this.logger.error("timeout failed", ex);
+			}
+		}
+		this.logger.info("timer stopped");
+	}
+
+	/**
+	 * The time since the timer was created.
+	 *
+	 * @return  the elapsed time in milliseconds.
+	 */
+	private long now()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startTime);
+	}
+
+	/**
+	 * Place a timeout in the wheel.
+	 * <p>The lowest level whose span covers the deadline is used.  A deadline
+	 * before the earliest tick is placed in the earliest tick.
+	 *
+	 * @param   timeout
+	 *          the timeout to place.
+	 * @param   earliest
+	 *          the earliest tick that will still be processed.
+	 */
+	private void add(Timeout timeout, long earliest)
+	{
+		long due = Math.max(timeout.deadline / this.tick, earliest);
+		long delta = Math.min(due - this.currentTick, MessageTimer.MAX_SPAN);
+		due = this.currentTick + delta;
+		int level = 0;
+		while (level < MessageTimer.LEVELS - 1 &&
+				delta >= (1L << (MessageTimer.SLOT_BITS * (level + 1))))
+		{
+			level++;
+		}
+		int slot = (int)(due >>> (MessageTimer.SLOT_BITS * level)) & MessageTimer.SLOT_MASK;
+		this.wheel[level][slot].link(timeout);
+	}
+
+	/**
+	 * Advance the wheel up to a tick.
+	 *
+	 * @param   toTick
+	 *          the tick to advance to.
+	 * @return  the expired timeouts, chained through {@code next};
+	 *          or {@code null} if none have expired.
+	 */
+	private Timeout advance(long toTick)
+	{
+		Timeout expired = null;
+		while (this.currentTick < toTick)
+		{
+			this.currentTick++;
+			// cascade from the highest level that has turned over
+			int top = 0;
+			while (top < MessageTimer.LEVELS - 1 &&
+					(this.currentTick & ((1L << (MessageTimer.SLOT_BITS * (top + 1))) - 1)) == 0)
+			{
+				top++;
+			}
+			for (int level = top; level > 0; level--)
+			{
+				int slot = (int)(this.currentTick >>> (MessageTimer.SLOT_BITS * level)) & MessageTimer.SLOT_MASK;
+				Timeout cascade = this.wheel[level][slot].detach();
+				while (cascade != null)
+				{
+					Timeout next = cascade.next;
+					// the slot for this tick is processed next
+					this.add(cascade, this.currentTick);
+					cascade = next;
+				}
+			}
+			Timeout due = this.wheel[0][(int)this.currentTick & MessageTimer.SLOT_MASK].detach();
+			while (due != null)
+			{
+				Timeout next = due.next;
+				if (due.deadline / this.tick > this.currentTick)
+				{
+					// held back by the span of the wheel
+					this.add(due, this.currentTick + 1);
+				}
+				else
+				{
+					this.size--;
+					due.next = expired;
+					expired = due;
+				}
+				due = next;
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * A message being timed.
+	 * <p>Each timeout is a node in the list for its slot so it can be removed
+	 * without a search.  A timeout that is not in the wheel has no
+	 * {@code previous} node.
+	 */
+	static class Timeout
+	{
+		/** the connection that submitted the message */
+		private final Connection connection;
+		/** the id of the message on the connection */
+		private final int sid;
+		/** the time, in milliseconds since the timer started, that the message expires */
+		private final long deadline;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(Connection connection, int sid, long deadline)
+		{
+			this.connection = connection;
+			this.sid = sid;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Add a timeout to the end of the list headed by this node.
+		 *
+		 * @param   timeout
+		 *          the timeout to add.
+		 */
+		private void link(Timeout timeout)
+		{
+			timeout.previous = this.previous;
+			timeout.next = this;
+			this.previous.next = timeout;
+			this.previous = timeout;
+		}
+
+		/**
+		 * Remove this node from its list.
+		 */
+		private void unlink()
+		{
+			this.previous.next = this.next;
+			this.next.previous = this.previous;
+			this.previous = null;
+			this.next = null;
+		}
+
+		/**
+		 * Remove every timeout from the list headed by this node.
+		 *
+		 * @return  the removed timeouts, chained through {@code next} and
+		 *          ending with {@code null}.
+		 */
+		private Timeout detach()
+		{
+			if (this.next == this)
+			{
+				return null;
+			}
+			Timeout first = this.next;
+			this.previous.next = null;
+			this.previous = this;
+			this.next = this;
+			for (Timeout t = first; t != null; t = t.next)
+			{
+				t.previous = null;
+			}
+			return first;
+		}
+	}
+}
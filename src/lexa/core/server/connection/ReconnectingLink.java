@@ -0,0 +1,675 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * ReconnectingLink.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataSet;
+import lexa.core.data.exception.DataException;
+import lexa.core.logging.Logger;
+import lexa.core.process.ProcessException;
+import lexa.core.server.context.Context;
+import lexa.core.server.context.Value;
+
+/**
+ * A link to a remote broker that survives losing its session.
+ * <p>Messages are sent as soon as they are submitted, without waiting for the
+ * replies to earlier ones, so a connection is limited by the bandwidth to the
+ * remote broker rather than the round trip.  At most a window of messages is
+ * in flight, waiting for their closing reply; later messages wait in order
+ * until there is room.  Closing a message, from the caller or its timeout,
+ * frees its place; once the window is full the oldest messages past their
+ * deadline give up theirs, as the caller has already timed them out.
+ * <p>If the remote broker is not keeping up, so the session will not take a
+ * message, the message goes back to the head of the waiting messages and is
+ * sent again shortly; the link is not lost.  System requests that cannot be
+ * sent are dropped.
+ * <p>If the link fails, or the remote broker closes it, a new link is made from
+ * the {@link RemoteHost}.  The first attempt is made at once, and later ones
+ * after a delay that doubles each time, up to {@link Value#MAX_RETRY_DELAY}.
+ * Once reconnected the messages in flight are sent again, in order, or failed
+ * if the host does not resend; if the session under the lost link is still
+ * open, so the remote broker still has the messages, they stay in flight.  If every attempt fails the messages in flight
+ * and waiting are failed; the next message sent starts reconnecting again.
+ * <p>A failed message is given a closing reply with a {@code return} saying the
+ * remote broker is unavailable.  Messages past their deadline are neither
+ * resent nor failed, as the caller has already timed them out.
+ * <p>Resending means a message may be handled twice by the remote broker, if
+ * the link was lost after the message arrived but before its reply.  Hosts
+ * serving requests that must not be repeated should be configured not to
+ * resend.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class ReconnectingLink
+		implements RemoteLink
+{
+	/** the thread that reconnects links, shared by all the links */
+	private static ScheduledExecutorService scheduler;
+
+	/** logger for events */
+	private final Logger logger;
+	/** the host providing the links */
+	private final RemoteHost remote;
+	/** the id of the connection using the link */
+	private final int id;
+	/** the most messages in flight */
+	private final int window;
+	/** indicate if messages in flight are resent after reconnecting */
+	private final boolean resend;
+	/** the attempts to reconnect before failing the messages */
+	private final int retries;
+	/** the messages sent and waiting for their closing reply, by source id, oldest first */
+	private final Map<Integer, DataSet> inFlight;
+	/** the messages waiting for room in the window, by source id, oldest first */
+	private final Map<Integer, DataSet> waiting;
+	/** the current link; {@code null} while reconnecting */
+	private RemoteLink link;
+	/** the link that was lost; {@code null} unless reconnecting */
+	private RemoteLink failed;
+	/** called with each data set received */
+	private volatile Consumer<DataSet> listener;
+	/** told when reconnecting fails */
+	private volatile Runnable closeListener;
+	/** the failed attempts to reconnect */
+	private int attempts;
+	/** indicate if an attempt to reconnect is due */
+	private boolean reconnecting;
+	/** indicate if sending the messages held back is due */
+	private boolean retrying;
+	/** indicate if the link has been closed */
+	private boolean closed;
+
+	/**
+	 * Create a link for a connection.
+	 *
+	 * @param   remote
+	 *          the host providing the links.
+	 * @param   id
+	 *          the id of the connection using the link.
+	 * @throws  ProcessException
+	 *          when the remote host cannot be reached.
+	 */
+	ReconnectingLink(RemoteHost remote, int id)
+			throws ProcessException
+	{
+		this.logger = new Logger(ReconnectingLink.class.getSimpleName(), remote.getName() + "#" + id);
+		this.remote = remote;
+		this.id = id;
+		this.window = remote.getWindow();
+		this.resend = remote.isResend();
+		this.retries = remote.getRetries();
+		this.inFlight = new LinkedHashMap<>();
+		this.waiting = new LinkedHashMap<>();
+		this.link = this.connect();
+	}
+
+	/**
+	 * Get the thread that reconnects links, starting it if needed.
+	 *
+	 * @return  the shared scheduler.
+	 */
+	private static synchronized ScheduledExecutorService scheduler()
+	{
+		if (ReconnectingLink.scheduler == null)
+		{
+			ReconnectingLink.scheduler = Executors.newSingleThreadScheduledExecutor((Runnable r) ->
+			{
+				Thread thread = new Thread(r, "remote-reconnect");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return ReconnectingLink.scheduler;
+	}
+
+	/**
+	 * Get a new link from the host.
+	 *
+	 * @return  a link to the remote host.
+	 * @throws  ProcessException
+	 *          when the remote host cannot be reached.
+	 */
+	private RemoteLink connect()
+			throws ProcessException
+	{
+		RemoteLink connected = this.remote.getLink(this.id);
+		connected.setListener(this::received);
+		connected.setCloseListener(() -> this.lost(connected));
+		return connected;
+	}
+
+	@Override
+	public void send(DataSet data)
+			throws DataException, IOException
+	{
+		synchronized (this)
+		{
+			if (this.closed)
+			{
+				throw new IOException("link closed");
+			}
+			DataSet messageList = data.getDataSet(Context.MESSAGE_LIST);
+			if (messageList == null || data.contains(Context.SERVICE))
+			{
+				if (this.admit(data) && !this.write(data))
+				{
+					this.hold(Collections.singletonList(data));
+				}
+			}
+			else
+			{
+				// only the messages that fit the window are sent
+				List<DataSet> admitted = new ArrayList<>(messageList.size());
+				for (int m = 0; m < messageList.size(); m++)
+				{
+					DataSet message = messageList.getDataSet(Integer.toString(m));
+					if (message != null && this.admit(message))
+					{
+						admitted.add(message);
+					}
+				}
+				if (admitted.size() > 1 && this.link.isBatching())
+				{
+					DataSet frame = new ArrayDataSet();
+					for (int m = 0; m < admitted.size(); m++)
+					{
+						frame.put(Integer.toString(m), admitted.get(m));
+					}
+					if (!this.write(new ArrayDataSet().put(Context.MESSAGE_LIST, frame)))
+					{
+						this.hold(admitted);
+					}
+				}
+				else
+				{
+					// the remote broker takes one message at a time
+					for (int m = 0; m < admitted.size() && this.link != null; m++)
+					{
+						if (!this.write(admitted.get(m)))
+						{
+							this.hold(admitted.subList(m, admitted.size()));
+							break;
+						}
+					}
+				}
+			}
+			this.drain();
+		}
+	}
+
+	/**
+	 * Decide if a message can be sent now.
+	 * <p>A request is put in flight if there is room and the link is up, and
+	 * otherwise waits.  Closing a message frees its place.
+	 *
+	 * @param   data
+	 *          the message.
+	 * @return  {@code true} if the message should be sent now,
+	 *          otherwise {@code false}.
+	 */
+	private boolean admit(DataSet data)
+	{
+		Integer sid = data.getInteger(Context.SOURCE_ID);
+		if (sid == null)
+		{
+			return this.link != null;
+		}
+		String systemRequest = data.getString(Context.SYSTEM_REQUEST);
+		if (Value.CLOSE_MESSAGE.equals(systemRequest))
+		{
+			if (this.waiting.remove(sid) != null)
+			{
+				return false; // never sent, so nothing to close
+			}
+			return this.inFlight.remove(sid) != null && this.link != null;
+		}
+		if (systemRequest != null)
+		{
+			return this.link != null && this.inFlight.containsKey(sid);
+		}
+		if (this.inFlight.size() >= this.window)
+		{
+			this.releaseExpired();
+		}
+		if (this.link != null && this.waiting.isEmpty() && this.inFlight.size() < this.window)
+		{
+			this.inFlight.put(sid, data);
+			return true;
+		}
+		this.waiting.put(sid, data);
+		if (this.link == null)
+		{
+			this.scheduleReconnect();
+		}
+		return false;
+	}
+
+	/**
+	 * Send waiting messages while there is room in the window.
+	 */
+	private void drain()
+	{
+		if (this.inFlight.size() >= this.window)
+		{
+			this.releaseExpired();
+		}
+		Iterator<Map.Entry<Integer, DataSet>> next = this.waiting.entrySet().iterator();
+		while (this.link != null && this.inFlight.size() < this.window && next.hasNext())
+		{
+			Map.Entry<Integer, DataSet> message = next.next();
+			if (ReconnectingLink.isExpired(message.getValue()))
+			{
+				next.remove();
+				continue;
+			}
+			this.inFlight.put(message.getKey(), message.getValue());
+			if (!this.write(message.getValue()))
+			{
+				// still not keeping up, so it stays at the head of the queue
+				this.inFlight.remove(message.getKey());
+				this.retryLater();
+				return;
+			}
+			next.remove();
+		}
+	}
+
+	/**
+	 * Free the places of the oldest messages in flight that are past their
+	 * deadline.
+	 * <p>The caller has timed them out, even if its close did not reach the
+	 * link, so they would otherwise hold their places for good.
+	 */
+	private void releaseExpired()
+	{
+		Iterator<DataSet> oldest = this.inFlight.values().iterator();
+		while (oldest.hasNext() && ReconnectingLink.isExpired(oldest.next()))
+		{
+			oldest.remove();
+		}
+	}
+
+	/**
+	 * Hold back messages the remote broker would not take.
+	 * <p>The messages give up their places in the window and wait, ahead of
+	 * those already waiting, to be sent again shortly.  System requests are
+	 * dropped.
+	 *
+	 * @param   messages
+	 *          the messages that were not sent, in order.
+	 */
+	private void hold(List<DataSet> messages)
+	{
+		Map<Integer, DataSet> later = new LinkedHashMap<>(this.waiting);
+		this.waiting.clear();
+		for (DataSet message : messages)
+		{
+			Integer sid = message.getInteger(Context.SOURCE_ID);
+			if (sid == null || message.contains(Context.SYSTEM_REQUEST))
+			{
+				this.logger.error("remote broker not keeping up, dropped", message, null);
+				continue;
+			}
+			this.inFlight.remove(sid);
+			this.waiting.put(sid, message);
+		}
+		this.waiting.putAll(later);
+		this.retryLater();
+	}
+
+	/**
+	 * Schedule sending the messages held back, unless it is due.
+	 */
+	private void retryLater()
+	{
+		if (this.retrying)
+		{
+			return;
+		}
+		this.retrying = true;
+		ReconnectingLink.scheduler().schedule(this::retry, Value.RETRY_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Send the messages held back while there is room in the window.
+	 */
+	private synchronized void retry()
+	{
+		this.retrying = false;
+		if (!this.closed)
+		{
+			this.drain();
+		}
+	}
+
+	/**
+	 * Write a frame on the current link.
+	 * <p>If the link fails the frame's messages stay in flight, to be resent or
+	 * failed once reconnected.
+	 *
+	 * @param   frame
+	 *          a message or a {@code messageList} of messages.
+	 * @return  {@code false} if the remote broker is not keeping up and the
+	 *          frame was not sent; otherwise {@code true}.
+	 */
+	private boolean write(DataSet frame)
+	{
+		try
+		{
+			this.link.send(frame);
+		}
+		catch (BackpressureException ex)
+		{
+			this.logger.debug("send held back: " + ex.getMessage());
+			return false;
+		}
+		catch (DataException ex)
+		{
+			// never sent, so the messages give up their places
+			this.logger.error("send failed, message dropped", frame, ex);
+			DataSet messageList = frame.getDataSet(Context.MESSAGE_LIST);
+			if (messageList == null || frame.contains(Context.SERVICE))
+			{
+				this.inFlight.remove(frame.getInteger(Context.SOURCE_ID));
+			}
+			else
+			{
+				for (int m = 0; m < messageList.size(); m++)
+				{
+					this.inFlight.remove(messageList.getDataSet(Integer.toString(m))
+							.getInteger(Context.SOURCE_ID));
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			this.logger.error("send failed, reconnecting", frame, ex);
+			this.lost(this.link);
+		}
+		return true;
+	}
+
+	/**
+	 * Handle data from the remote broker.
+	 * <p>A closing reply frees the message's place in the window.
+	 *
+	 * @param   data
+	 *          the data received.
+	 */
+	private void received(DataSet data)
+	{
+		Integer sid = data.getInteger(Context.SOURCE_ID);
+		if (sid != null && Boolean.TRUE.equals(data.getBoolean(Context.CLOSE)))
+		{
+			synchronized (this)
+			{
+				if (this.inFlight.remove(sid) != null)
+				{
+					this.drain();
+				}
+			}
+		}
+		Consumer<DataSet> current = this.listener;
+		if (current != null)
+		{
+			current.accept(data);
+		}
+	}
+
+	/**
+	 * Handle losing a link, and start reconnecting.
+	 *
+	 * @param   failed
+	 *          the link that was lost.
+	 */
+	private synchronized void lost(RemoteLink failed)
+	{
+		if (this.closed || this.link != failed)
+		{
+			return; // closed on purpose or already replaced
+		}
+		this.link = null;
+		if (this.failed == null)
+		{
+			this.failed = failed;
+		}
+		failed.close();
+		this.logger.info("link lost, reconnecting");
+		this.scheduleReconnect();
+	}
+
+	/**
+	 * Schedule the next attempt to reconnect, unless one is due.
+	 */
+	private void scheduleReconnect()
+	{
+		if (this.reconnecting)
+		{
+			return;
+		}
+		this.reconnecting = true;
+		long delay = 0;
+		if (this.attempts > 0)
+		{
+			delay = Math.min((long)Value.RETRY_DELAY << Math.min(this.attempts - 1, 16),
+					Value.MAX_RETRY_DELAY);
+			// spread the attempts from connections that failed together
+			delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		}
+		ReconnectingLink.scheduler().schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Try to reconnect, then resend or fail the messages in flight.
+	 */
+	private void reconnect()
+	{
+		RemoteLink connected = null;
+		ProcessException cause = null;
+		try
+		{
+			connected = this.connect();
+		}
+		catch (ProcessException ex)
+		{
+			cause = ex;
+		}
+		List<DataSet> failures = new ArrayList<>();
+		boolean gaveUp = false;
+		synchronized (this)
+		{
+			this.reconnecting = false;
+			if (this.closed)
+			{
+				if (connected != null)
+				{
+					connected.close();
+				}
+				return;
+			}
+			if (connected == null)
+			{
+				this.attempts++;
+				if (this.attempts <= this.retries)
+				{
+					this.logger.info("reconnect attempt " + this.attempts + " failed: " + cause.getMessage());
+					this.scheduleReconnect();
+					return;
+				}
+				this.logger.error("unable to reconnect, failing messages", cause);
+				this.attempts = 0;
+				this.failed = null;
+				this.fail(this.inFlight, failures);
+				this.fail(this.waiting, failures);
+				gaveUp = true;
+			}
+			else
+			{
+				this.logger.info("reconnected");
+				this.attempts = 0;
+				this.link = connected;
+				// a link on a session that is still open left the messages with the remote broker
+				boolean replaced = this.failed == null || !this.failed.isOpen();
+				this.failed = null;
+				if (!replaced)
+				{
+					this.logger.info("session kept, messages left in flight");
+				}
+				else if (this.resend)
+				{
+					List<Map.Entry<Integer, DataSet>> resending = new ArrayList<>(this.inFlight.entrySet());
+					List<DataSet> held = new ArrayList<>();
+					for (Map.Entry<Integer, DataSet> message : resending)
+					{
+						if (ReconnectingLink.isExpired(message.getValue()))
+						{
+							this.inFlight.remove(message.getKey());
+						}
+						else if (!held.isEmpty())
+						{
+							held.add(message.getValue());
+						}
+						else if (this.link != null && !this.write(message.getValue()))
+						{
+							held.add(message.getValue());
+						}
+					}
+					if (!held.isEmpty())
+					{
+						this.hold(held);
+					}
+				}
+				else
+				{
+					this.fail(this.inFlight, failures);
+				}
+				this.drain();
+			}
+		}
+		// outside the lock, as the connection may submit further messages
+		Consumer<DataSet> current = this.listener;
+		if (current != null)
+		{
+			for (DataSet failure : failures)
+			{
+				current.accept(failure);
+			}
+		}
+		Runnable closed = this.closeListener;
+		if (gaveUp && closed != null)
+		{
+			closed.run();
+		}
+	}
+
+	/**
+	 * Fail a group of messages.
+	 *
+	 * @param   messages
+	 *          the messages to fail, which is cleared.
+	 * @param   failures
+	 *          the list for the closing replies.
+	 */
+	private void fail(Map<Integer, DataSet> messages, List<DataSet> failures)
+	{
+		for (Map.Entry<Integer, DataSet> message : messages.entrySet())
+		{
+			if (!ReconnectingLink.isExpired(message.getValue()))
+			{
+				failures.add(new ArrayDataSet()
+						.put(Context.CONNECTION_ID, this.id)
+						.put(Context.SOURCE_ID, message.getKey())
+						.put(Context.RETURN, "remote broker unavailable")
+						.put(Context.CLOSE, true));
+			}
+		}
+		messages.clear();
+	}
+
+	/**
+	 * Check if a message has passed its deadline.
+	 *
+	 * @param   data
+	 *          the message.
+	 * @return  {@code true} if the message has a deadline that has passed,
+	 *          otherwise {@code false}.
+	 */
+	private static boolean isExpired(DataSet data)
+	{
+		Long deadline = data.getLong(Context.DEADLINE);
+		return deadline != null &&
+				deadline != 0 &&
+				deadline < System.currentTimeMillis();
+	}
+
+	/**
+	 * Indicate if a batch can be sent as a single frame.
+	 * <p>Always {@code true}; a batch is split into single messages for a
+	 * remote broker that does not unpack message lists.
+	 *
+	 * @return  {@code true}.
+	 */
+	@Override
+	public boolean isBatching()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isOpen()
+	{
+		return !this.closed;
+	}
+
+	@Override
+	public void setListener(Consumer<DataSet> listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Set the listener told each time reconnecting fails and the messages are
+	 * failed.
+	 *
+	 * @param   listener
+	 *          called when the remote broker cannot be reached.
+	 */
+	@Override
+	public void setCloseListener(Runnable listener)
+	{
+		this.closeListener = listener;
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		this.closed = true;
+		this.inFlight.clear();
+		this.waiting.clear();
+		if (this.link != null)
+		{
+			this.link.close();
+			this.link = null;
+		}
+	}
+}
@@ -7,25 +7,43 @@ package lexa.core.server.connection;
 
 
 import java.io.IOException;
-import lexa.core.comms.Session;
-import lexa.core.comms.SessionListener;
+import java.util.List;
+import lexa.core.data.ArrayDataSet;
 import lexa.core.data.DataSet;
 import lexa.core.data.exception.DataException;
 import lexa.core.server.Broker;
+import lexa.core.server.context.Context;
+import lexa.core.server.messaging.Envelope;
 import lexa.core.process.ProcessException;
 
 /**
+ * A connection that submits messages to a broker on a remote host.
+ * <p>The link to the host is agreed by the {@link RemoteHost}; it uses the
+ * binary {@link WireCodec} if the peer supports it.  Messages are pipelined
+ * over a {@link ReconnectingLink}, which keeps a window of messages in flight
+ * and reconnects if the link is lost.
+ * <p>A batch of messages is sent as a single frame if the remote broker unpacks
+ * message lists, and otherwise one message at a time:
+ * <pre>
+ * messageList {
+ *   &lt;n&gt; {
+ *     &lt;message&gt;
+ *   }
+ *   [...]
+ * }
+ * </pre>
+ * <p>where each &lt;message&gt; is as sent on its own, numbered from {@code 0}
+ * in order.
  *
  * @author William Norman-Walker
  * @since YYYY-MM
  */
 
 public class RemoteConnection
-        extends Connection
-		implements SessionListener {
+        extends Connection {
 
-    /** the broker for submitting messages */
-    private final Session session;
+    /** the link to the remote broker */
+    private final ReconnectingLink link;
 
     /**
      * Create a now connection into a broker with a given id.
@@ -36,25 +54,28 @@ public class RemoteConnection
      *          the unique id for the connection.
      * @param   remote
      *          provides the session.
+     * @param   timer
+     *          expiry service for the messages.
      */
-    RemoteConnection(Broker broker, int id, RemoteHost remote)
+    RemoteConnection(Broker broker, int id, RemoteHost remote, MessageTimer timer)
             throws ProcessException {
-		super(broker,remote.getName(),id);
-        this.session = remote.getSession();
+		super(broker,remote.getName(),id, timer);
+        this.link = new ReconnectingLink(remote, id);
     }
 
     @Override
     public void close() {
         super.close();
-		this.session.close();
+		this.link.close();
     }
 
 	@Override
-	void inbound(DataSet data)
+	void inbound(Envelope envelope)
 	{
+		DataSet data = envelope.getData();
 		try
 		{
-			this.session.send(data);
+			this.link.send(data);
 		}
 		catch (DataException | IOException ex)
 		{
@@ -64,15 +85,29 @@ public class RemoteConnection
 	}
 
 	@Override
-	public void message(Session session, DataSet data)
+	void inboundAll(List<Envelope> envelopes)
 	{
-		this.reply(data);
+		DataSet messageList = new ArrayDataSet();
+		for (int e = 0; e < envelopes.size(); e++)
+		{
+			messageList.put(Integer.toString(e), envelopes.get(e).getData());
+		}
+		DataSet frame = new ArrayDataSet()
+				.put(Context.MESSAGE_LIST, messageList);
+		try
+		{
+			this.link.send(frame);
+		}
+		catch (DataException | IOException ex)
+		{
+			this.logger.error("inbound send failed", frame, ex);
+		}
 	}
 
 	@Override
 	void start()
 	{
-		this.session.setSessionListener(this);
+		this.link.setListener((DataSet data) -> this.reply(data));
 	}
 	
 	
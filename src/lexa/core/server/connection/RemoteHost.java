@@ -9,17 +9,58 @@ import java.net.*;
 import lexa.core.comms.Session;
 import lexa.core.data.config.ConfigDataSet;
 import lexa.core.data.exception.DataException;
+import lexa.core.logging.Logger;
 import lexa.core.process.ProcessException;
 import lexa.core.server.context.Config;
+import lexa.core.server.context.Value;
 
 /**
+ * A remote broker from the {@code brokerList}.
+ * <p>The configuration for a remote broker is:
+ * <pre>
+ * &lt;connectionName&gt; {
+ *   host &lt;host&gt;
+ *   port % &lt;port&gt;
+ *   [codec &lt;codec&gt;]
+ *   [sessions &lt;sessions&gt;]
+ *   [window % &lt;window&gt;]
+ *   [resend ? &lt;resend&gt;]
+ *   [retries % &lt;retries&gt;]
+ * }
+ * </pre>
+ * <p>Where &lt;codec&gt; is {@code binary}, to try the {@link WireCodec} and
+ * fall back to the original format if the peer does not support it, or
+ * {@code legacy} to always use the original format; [optional; default is
+ * {@code binary}].  Once a peer has answered the handshake without the codec
+ * the original format is used for it from then on; a peer that cannot be
+ * reached, or does not answer in time, keeps trying the codec.
+ * <p>With the binary codec the connections to the host share &lt;sessions&gt;
+ * sockets, each connection on its own channel; [optional; default is 1].
+ * Connections using the original format each have their own socket.
+ * <p>Each connection keeps at most &lt;window&gt; messages in flight, waiting for
+ * their closing reply; [optional; default is 256].  If its link is lost the
+ * connection reconnects, trying &lt;retries&gt; times with a growing delay
+ * [optional; default is 5], and then resends the messages in flight, or fails
+ * them if &lt;resend&gt; is {@code false} [optional; default is {@code true}].
+ * See {@link ReconnectingLink}.
  *
  * @author Felhasználó
  */
 class RemoteHost {
+    private final Logger logger;
     private final String name;
     private final InetAddress ipAddress;
     private final Integer port;
+    /** indicate if the peer may support the binary codec */
+    private volatile boolean binary;
+    /** the sessions shared by the connections, created as needed */
+    private final WireSession[] shared;
+    /** the most messages each connection has in flight */
+    private final int window;
+    /** indicate if messages in flight are resent after reconnecting */
+    private final boolean resend;
+    /** the attempts to reconnect before failing the messages */
+    private final int retries;
 
     RemoteHost(String name, ConfigDataSet config)
             throws DataException {
@@ -31,6 +72,26 @@ class RemoteHost {
             throw new DataException("Unable to determine remote host " + this.name + "@" + ip );
         }
         this.port = config.getInteger(Config.PORT);
+        String codec = config.get(Config.CODEC, Value.CODEC_BINARY).getString();
+        if (!Value.CODEC_BINARY.equals(codec) && !Value.CODEC_LEGACY.equals(codec)) {
+            throw new DataException("Config codec is not \"binary\" or \"legacy\": " + codec + "@" + this.name);
+        }
+        this.binary = Value.CODEC_BINARY.equals(codec);
+        int sessions = config.get(Config.SESSIONS, 1).getInteger();
+        if (sessions < 1) {
+            throw new DataException("Config sessions must be at least 1: " + this.name);
+        }
+        this.shared = new WireSession[sessions];
+        this.window = config.get(Config.WINDOW, Value.DEFAULT_WINDOW).getInteger();
+        if (this.window < 1) {
+            throw new DataException("Config window must be at least 1: " + this.name);
+        }
+        this.resend = config.get(Config.RESEND, true).getBoolean();
+        this.retries = config.get(Config.RETRIES, Value.DEFAULT_RETRIES).getInteger();
+        if (this.retries < 0) {
+            throw new DataException("Config retries must not be negative: " + this.name);
+        }
+        this.logger = new Logger(RemoteHost.class.getSimpleName(), this.name);
         config.close();
     }
 
@@ -38,6 +99,73 @@ class RemoteHost {
 		return this.name;
 				
 	} 
+
+    int getWindow() {
+        return this.window;
+    }
+
+    boolean isResend() {
+        return this.resend;
+    }
+
+    int getRetries() {
+        return this.retries;
+    }
+
+    /**
+     * Get a link to the remote host for a connection.
+     * <p>The binary codec is tried first unless the peer is known not to
+     * support it.  Connections are spread over the shared sessions by id.
+     *
+     * @param   id
+     *          the id of the connection, used as its channel.
+     * @return  a link to the remote host
+     * @throws  ProcessException
+     *          when the remote host cannot be reached.
+     */
+    RemoteLink getLink(int id)
+            throws ProcessException {
+        if (this.binary) {
+            try {
+                WireSession session = this.sharedSession(id);
+                return new WireChannel(session, session.isMultiplexed() ? id : 0);
+            } catch (UnsupportedCodecException ex) {
+                this.logger.info("wire codec not agreed, using original format: " + ex.getMessage());
+                this.binary = false;
+            } catch (IOException ex) {
+                // down, slow or reset for now, which says nothing about the codec
+                throw new ProcessException("Unable to reach host " + this.name, ex);
+            }
+        }
+        return new LegacyLink(this.getSession());
+    }
+
+    /**
+     * Get the shared session for a connection, opening it if needed.
+     * <p>A peer that cannot multiplex gives each connection its own session.
+     *
+     * @param   id
+     *          the id of the connection.
+     * @return  a session to the remote host
+     * @throws  IOException
+     *          when the peer cannot be reached or does not support the codec.
+     */
+    private WireSession sharedSession(int id)
+            throws IOException {
+        int slot = Math.floorMod(id, this.shared.length);
+        synchronized (this.shared) {
+            WireSession session = this.shared[slot];
+            if (session != null && session.isOpen()) {
+                return session;
+            }
+            session = WireSession.connect(this.name, this.ipAddress, this.port, Value.HANDSHAKE_TIMEOUT);
+            if (session.isMultiplexed()) {
+                this.shared[slot] = session;
+            }
+            return session;
+        }
+    }
+
     /**
      * get a session to the remote host.
      *
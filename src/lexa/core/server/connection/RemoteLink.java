@@ -0,0 +1,80 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * RemoteLink.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+import lexa.core.data.DataSet;
+import lexa.core.data.exception.DataException;
+
+/**
+ * A session to a remote broker used by a {@link RemoteConnection}.
+ * <p>A link is either a {@link WireChannel} on a session using the binary
+ * {@link WireCodec}, or a {@link LegacyLink} to a peer that only supports the
+ * original format.
+ *
+ * @author william
+ * @since 2026-10
+ */
+interface RemoteLink
+{
+	/**
+	 * Send data to the remote broker.
+	 *
+	 * @param   data
+	 *          the data to send.
+	 * @throws  DataException
+	 *          when the data cannot be encoded.
+	 * @throws  BackpressureException
+	 *          when the remote broker is not keeping up; the link is still open.
+	 * @throws  IOException
+	 *          when the data cannot be sent.
+	 */
+	void send(DataSet data)
+			throws DataException, IOException;
+
+	/**
+	 * Set the listener for data received from the remote broker.
+	 *
+	 * @param   listener
+	 *          called with each data set received.
+	 */
+	void setListener(Consumer<DataSet> listener);
+
+	/**
+	 * Set the listener told if the link fails or is closed by the remote broker.
+	 *
+	 * @param   listener
+	 *          called once when the link is lost.
+	 */
+	void setCloseListener(Runnable listener);
+
+	/**
+	 * Indicate if the remote broker unpacks a {@code messageList} of messages.
+	 *
+	 * @return  {@code true} if a batch can be sent as a single frame,
+	 *          otherwise {@code false}.
+	 */
+	boolean isBatching();
+
+	/**
+	 * Indicate if the session under the link is still open.
+	 * <p>A link on a shared session may be closed while its session stays open,
+	 * carrying the replies to the messages already sent.
+	 *
+	 * @return  {@code true} if the session is open, otherwise {@code false}.
+	 */
+	boolean isOpen();
+
+	/**
+	 * Close the link.
+	 */
+	void close();
+}
@@ -0,0 +1,36 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * UnsupportedCodecException.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a peer answers the handshake with something other than the
+ * {@link WireCodec}'s magic, and so does not support the codec.
+ * <p>Only this says the peer uses the original format; a peer that cannot be
+ * reached, times out or resets the socket fails with another exception.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class UnsupportedCodecException
+		extends IOException
+{
+	/**
+	 * Create an exception with a message.
+	 *
+	 * @param   message
+	 *          the reason the codec was not agreed.
+	 */
+	UnsupportedCodecException(String message)
+	{
+		super(message);
+	}
+}
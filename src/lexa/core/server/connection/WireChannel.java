@@ -0,0 +1,102 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * WireChannel.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+import lexa.core.data.DataSet;
+import lexa.core.data.exception.DataException;
+
+/**
+ * A link for one connection over a {@link WireSession} shared with others.
+ * <p>The channel is the id of the connection, so the session hands replies
+ * straight to the connection that sent the message.  Closing the channel tells
+ * the peer, so it can release its side.  A session that cannot multiplex
+ * carries the one channel {@code 0} and is closed with it.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class WireChannel
+		implements RemoteLink
+{
+	/** the session carrying the channel */
+	private final WireSession session;
+	/** the channel on the session */
+	private final int channel;
+	/** told when the session closes; {@code null} if not set */
+	private volatile Runnable closeListener;
+
+	/**
+	 * Create a link on a channel of a session.
+	 *
+	 * @param   session
+	 *          the session carrying the channel.
+	 * @param   channel
+	 *          the channel on the session.
+	 */
+	WireChannel(WireSession session, int channel)
+	{
+		this.session = session;
+		this.channel = channel;
+	}
+
+	@Override
+	public void send(DataSet data)
+			throws DataException, IOException
+	{
+		this.session.send(this.channel, data);
+	}
+
+	@Override
+	public void setListener(Consumer<DataSet> listener)
+	{
+		this.session.open(this.channel, listener);
+	}
+
+	@Override
+	public void setCloseListener(Runnable listener)
+	{
+		this.closeListener = listener;
+		this.session.addCloseListener(listener);
+	}
+
+	@Override
+	public boolean isBatching()
+	{
+		return this.session.isBatching();
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return this.session.isOpen();
+	}
+
+	@Override
+	public void close()
+	{
+		Runnable listener = this.closeListener;
+		if (listener != null)
+		{
+			// closed on purpose, so not a lost link
+			this.session.removeCloseListener(listener);
+		}
+		if (this.session.isMultiplexed())
+		{
+			// the peer releases its side of the channel
+			this.session.closeChannel(this.channel);
+		}
+		else
+		{
+			this.session.close();
+		}
+	}
+}
@@ -0,0 +1,476 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * WireCodec.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lexa.core.data.ArrayDataArray;
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataArray;
+import lexa.core.data.DataItem;
+import lexa.core.data.DataSet;
+import lexa.core.data.DataValue;
+import lexa.core.data.exception.DataException;
+
+/**
+ * Compact binary encoding of a {@link DataSet} for a session between brokers.
+ * <p>Each value is written with a one byte type tag; integers and longs are
+ * zig-zag varints, so small values take a single byte.  Field names are kept
+ * in a dictionary for the session: the first time a name is sent it is written
+ * in full and given the next number, after that only the number is sent.  As
+ * every message repeats {@code service}, {@code message}, {@code connectionId},
+ * {@code sourceId} and {@code request} this removes most of the overhead.
+ * <p>A data set is encoded as:
+ * <pre>
+ * dataSet := count:varint { name value }
+ * name    := 0 length:varint utf8   - a new name
+ *          | index+1:varint          - a name already in the dictionary
+ * value   := tag payload
+ * </pre>
+ * <p>The dictionary holds at most {@link #MAX_NAMES} names; later new names are
+ * always written in full.  Both ends follow the same rule, so the dictionaries
+ * never need to be exchanged.
+ * <p>A codec holds the dictionaries for one session, one for each direction.
+ * It is not thread safe: one thread may encode while another decodes.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class WireCodec
+{
+	/** the version of the encoding; version 2 added channels to the frames */
+	public static final int VERSION = 2;
+	/** the bytes sent first by each end of a session to agree the encoding */
+	static final byte[] MAGIC = {'L', 'X', 'W'};
+	/** the most names held in each dictionary */
+	static final int MAX_NAMES = 4096;
+
+	private static final int NULL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int INTEGER = 3;
+	private static final int LONG = 4;
+	private static final int DOUBLE = 5;
+	private static final int STRING = 6;
+	private static final int DATA_SET = 7;
+	private static final int ARRAY = 8;
+	private static final int DATE = 9;
+	private static final int DECIMAL = 10;
+
+	/** the numbers for the names sent, by name */
+	private final Map<String, Integer> sentNames;
+	/** the names sent, by number */
+	private final List<String> sentOrder;
+	/** the names received, by number */
+	private final List<String> receivedNames;
+	/** the buffer used to encode, kept between messages */
+	private byte[] buffer;
+	/** the position in the buffer */
+	private int position;
+
+	/**
+	 * Create a codec for a new session.
+	 */
+	public WireCodec()
+	{
+		this.sentNames = new HashMap<>();
+		this.sentOrder = new ArrayList<>();
+		this.receivedNames = new ArrayList<>();
+		this.buffer = new byte[256];
+	}
+
+	/**
+	 * Encode a data set.
+	 *
+	 * @param   data
+	 *          the data to encode.
+	 * @return  the encoded data.
+	 * @throws  DataException
+	 *          when the data contains a value that cannot be encoded.
+	 */
+	public byte[] encode(DataSet data)
+			throws DataException
+	{
+		this.position = 0;
+		int names = this.sentOrder.size();
+		try
+		{
+			this.writeDataSet(data);
+		}
+		catch (DataException ex)
+		{
+			// the data is not sent, so the peer never sees the new names
+			while (this.sentOrder.size() > names)
+			{
+				this.sentNames.remove(this.sentOrder.remove(this.sentOrder.size() - 1));
+			}
+			throw ex;
+		}
+		return Arrays.copyOf(this.buffer, this.position);
+	}
+
+	/**
+	 * Decode a data set.
+	 *
+	 * @param   bytes
+	 *          the encoded data.
+	 * @return  the decoded data.
+	 * @throws  DataException
+	 *          when the bytes are not a valid encoding.
+	 */
+	public DataSet decode(byte[] bytes)
+			throws DataException
+	{
+		return this.decode(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Decode a data set from part of an array.
+	 *
+	 * @param   bytes
+	 *          the array holding the encoded data.
+	 * @param   offset
+	 *          the start of the encoded data.
+	 * @param   length
+	 *          the length of the encoded data.
+	 * @return  the decoded data.
+	 * @throws  DataException
+	 *          when the bytes are not a valid encoding.
+	 */
+	public DataSet decode(byte[] bytes, int offset, int length)
+			throws DataException
+	{
+		Reader reader = new Reader(bytes, offset, offset + length);
+		DataSet data = this.readDataSet(reader);
+		if (reader.position != reader.end)
+		{
+			throw new DataException("Wire data has trailing bytes");
+		}
+		return data;
+	}
+
+	private void writeDataSet(DataSet data)
+			throws DataException
+	{
+		this.writeVarint(data.size());
+		for (DataItem item : data)
+		{
+			this.writeName(item.getKey());
+			this.writeValue(item.getObject());
+		}
+	}
+
+	private void writeName(String name)
+	{
+		Integer index = this.sentNames.get(name);
+		if (index != null)
+		{
+			this.writeVarint(index + 1);
+			return;
+		}
+		this.writeVarint(0);
+		this.writeString(name);
+		if (this.sentNames.size() < WireCodec.MAX_NAMES)
+		{
+			this.sentNames.put(name, this.sentOrder.size());
+			this.sentOrder.add(name);
+		}
+	}
+
+	private void writeValue(Object value)
+			throws DataException
+	{
+		if (value == null)
+		{
+			this.writeByte(WireCodec.NULL);
+		}
+		else if (value instanceof DataSet)
+		{
+			this.writeByte(WireCodec.DATA_SET);
+			this.writeDataSet((DataSet)value);
+		}
+		else if (value instanceof DataArray)
+		{
+			DataArray array = (DataArray)value;
+			this.writeByte(WireCodec.ARRAY);
+			this.writeVarint(array.size());
+			for (DataValue element : array)
+			{
+				this.writeValue(element.getObject());
+			}
+		}
+		else if (value instanceof String)
+		{
+			this.writeByte(WireCodec.STRING);
+			this.writeString((String)value);
+		}
+		else if (value instanceof Integer)
+		{
+			this.writeByte(WireCodec.INTEGER);
+			this.writeVarlong(WireCodec.zigZag((Integer)value));
+		}
+		else if (value instanceof Long)
+		{
+			this.writeByte(WireCodec.LONG);
+			this.writeVarlong(WireCodec.zigZag((Long)value));
+		}
+		else if (value instanceof Boolean)
+		{
+			this.writeByte((Boolean)value ? WireCodec.TRUE : WireCodec.FALSE);
+		}
+		else if (value instanceof Double)
+		{
+			this.writeByte(WireCodec.DOUBLE);
+			long bits = Double.doubleToLongBits((Double)value);
+			for (int b = 56; b >= 0; b -= 8)
+			{
+				this.writeByte((int)(bits >>> b));
+			}
+		}
+		else if (value instanceof Date)
+		{
+			this.writeByte(WireCodec.DATE);
+			this.writeVarlong(WireCodec.zigZag(((Date)value).getTime()));
+		}
+		else if (value instanceof BigDecimal)
+		{
+			this.writeByte(WireCodec.DECIMAL);
+			this.writeString(((BigDecimal)value).toString());
+		}
+		else
+		{
+			throw new DataException("Wire cannot encode " + value.getClass().getName());
+		}
+	}
+
+	private void writeString(String value)
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		this.writeVarint(bytes.length);
+		this.ensure(bytes.length);
+		System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+		this.position += bytes.length;
+	}
+
+	private void writeVarint(int value)
+	{
+		this.writeVarlong(value & 0xffffffffL);
+	}
+
+	private void writeVarlong(long value)
+	{
+		this.ensure(10);
+		while ((value & ~0x7fL) != 0)
+		{
+			this.buffer[this.position++] = (byte)((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.position++] = (byte)value;
+	}
+
+	private void writeByte(int value)
+	{
+		this.ensure(1);
+		this.buffer[this.position++] = (byte)value;
+	}
+
+	private void ensure(int bytes)
+	{
+		if (this.position + bytes > this.buffer.length)
+		{
+			this.buffer = Arrays.copyOf(this.buffer,
+					Math.max(this.buffer.length * 2, this.position + bytes));
+		}
+	}
+
+	private static long zigZag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private DataSet readDataSet(Reader reader)
+			throws DataException
+	{
+		int count = reader.readVarint();
+		DataSet data = new ArrayDataSet();
+		for (int i = 0; i < count; i++)
+		{
+			String name = this.readName(reader);
+			data.put(name, this.readValue(reader));
+		}
+		return data;
+	}
+
+	private String readName(Reader reader)
+			throws DataException
+	{
+		int index = reader.readVarint();
+		if (index != 0)
+		{
+			if (index > this.receivedNames.size())
+			{
+				throw new DataException("Wire name is not in the dictionary: " + index);
+			}
+			return this.receivedNames.get(index - 1);
+		}
+		String name = reader.readString();
+		if (this.receivedNames.size() < WireCodec.MAX_NAMES)
+		{
+			this.receivedNames.add(name);
+		}
+		return name;
+	}
+
+	private Object readValue(Reader reader)
+			throws DataException
+	{
+		int tag = reader.next();
+		switch (tag)
+		{
+			case WireCodec.NULL :
+			{
+				return null;
+			}
+			case WireCodec.FALSE :
+			{
+				return false;
+			}
+			case WireCodec.TRUE :
+			{
+				return true;
+			}
+			case WireCodec.INTEGER :
+			{
+				return (int)WireCodec.unZigZag(reader.readVarlong());
+			}
+			case WireCodec.LONG :
+			{
+				return WireCodec.unZigZag(reader.readVarlong());
+			}
+			case WireCodec.DOUBLE :
+			{
+				long bits = 0;
+				for (int b = 0; b < 8; b++)
+				{
+					bits = (bits << 8) | (reader.next() & 0xff);
+				}
+				return Double.longBitsToDouble(bits);
+			}
+			case WireCodec.STRING :
+			{
+				return reader.readString();
+			}
+			case WireCodec.DATA_SET :
+			{
+				return this.readDataSet(reader);
+			}
+			case WireCodec.ARRAY :
+			{
+				int count = reader.readVarint();
+				DataArray array = new ArrayDataArray();
+				for (int i = 0; i < count; i++)
+				{
+					array.add(this.readValue(reader));
+				}
+				return array;
+			}
+			case WireCodec.DATE :
+			{
+				return new Date(WireCodec.unZigZag(reader.readVarlong()));
+			}
+			case WireCodec.DECIMAL :
+			{
+				return new BigDecimal(reader.readString());
+			}
+			default :
+			{
+				throw new DataException("Wire type is not recognised: " + tag);
+			}
+		}
+	}
+
+	/**
+	 * The position within the bytes being decoded.
+	 */
+	private static class Reader
+	{
+		private final byte[] bytes;
+		private final int end;
+		private int position;
+
+		private Reader(byte[] bytes, int position, int end)
+		{
+			this.bytes = bytes;
+			this.position = position;
+			this.end = end;
+		}
+
+		private byte next()
+				throws DataException
+		{
+			if (this.position >= this.end)
+			{
+				throw new DataException("Wire data is truncated");
+			}
+			return this.bytes[this.position++];
+		}
+
+		private int readVarint()
+				throws DataException
+		{
+			long value = this.readVarlong();
+			if (value > Integer.MAX_VALUE)
+			{
+				throw new DataException("Wire count is too large: " + value);
+			}
+			return (int)value;
+		}
+
+		private long readVarlong()
+				throws DataException
+		{
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				byte b = this.next();
+				value |= (long)(b & 0x7f) << shift;
+				if (b >= 0)
+				{
+					return value;
+				}
+			}
+			throw new DataException("Wire varint is too long");
+		}
+
+		private String readString()
+				throws DataException
+		{
+			int length = this.readVarint();
+			if (length > this.end - this.position)
+			{
+				throw new DataException("Wire data is truncated");
+			}
+			String value = new String(this.bytes, this.position, length, StandardCharsets.UTF_8);
+			this.position += length;
+			return value;
+		}
+	}
+}
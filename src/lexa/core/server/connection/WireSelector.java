@@ -0,0 +1,195 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * WireSelector.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lexa.core.data.exception.DataException;
+import lexa.core.logging.Logger;
+
+/**
+ * A thread that does the reading and writing for many {@link WireSession}s.
+ * <p>Each session's socket is non-blocking and registered with the selector.
+ * Sending only queues a frame and, if the session was not already writing,
+ * asks the selector to watch for the socket being writable; the thread then
+ * writes the queued frames.  Frames read are decoded and passed to the
+ * listeners on this thread, so listeners must not block.
+ * <p>Other threads never change a selection key themselves, as that can wait
+ * on a select in progress; they queue the change and wake the selector.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class WireSelector
+		implements Runnable
+{
+	/** the selector used for the sessions to remote brokers */
+	private static WireSelector shared;
+
+	/** logger for events */
+	private final Logger logger;
+	/** the selector for the sockets */
+	private final Selector selector;
+	/** sessions waiting to be registered */
+	private final Queue<WireSession> registrations;
+	/** sessions with frames to write */
+	private final Queue<WireSession> writers;
+	/** the thread doing the reading and writing */
+	private final Thread thread;
+
+	/**
+	 * Create a selector and start its thread.
+	 *
+	 * @param   name
+	 *          the name for the thread.
+	 * @throws  IOException
+	 *          when the selector cannot be opened.
+	 */
+	WireSelector(String name)
+			throws IOException
+	{
+		this.logger = new Logger(WireSelector.class.getSimpleName(), name);
+		this.selector = Selector.open();
+		this.registrations = new ConcurrentLinkedQueue<>();
+		this.writers = new ConcurrentLinkedQueue<>();
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Get the selector shared by the sessions to remote brokers.
+	 *
+	 * @return  the shared selector.
+	 * @throws  IOException
+	 *          when the selector cannot be opened.
+	 */
+	static synchronized WireSelector shared()
+			throws IOException
+	{
+		if (WireSelector.shared == null)
+		{
+			WireSelector.shared = new WireSelector("wire-selector");
+		}
+		return WireSelector.shared;
+	}
+
+	/**
+	 * Start reading a session.
+	 *
+	 * @param   session
+	 *          a session with a non-blocking socket.
+	 */
+	void register(WireSession session)
+	{
+		this.registrations.add(session);
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Start writing a session's queued frames.
+	 *
+	 * @param   session
+	 *          a session with frames to write.
+	 */
+	void writeReady(WireSession session)
+	{
+		this.writers.add(session);
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Stop the thread and close the selector.
+	 */
+	void close()
+	{
+		try
+		{
+			this.selector.close();
+		}
+		catch (IOException ex)
+		{
+			this.logger.error("close failed", ex);
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		this.logger.info("selector started");
+		while (this.selector.isOpen())
+		{
+			try
+			{
+				this.selector.select();
+				WireSession session;
+				while ((session = this.registrations.poll()) != null)
+				{
+					session.registered(this.selector);
+				}
+				while ((session = this.writers.poll()) != null)
+				{
+					session.watchWrites();
+				}
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					this.ready(key);
+				}
+			}
+			catch (IOException ex)
+			{
+				this.logger.error("select failed", ex);
+			}
+			catch (RuntimeException ex)
+			{
+				// a closed selector ends the loop
+				if (this.selector.isOpen())
+				{
+					this.logger.error("select failed", ex);
+				}
+			}
+		}
+		this.logger.info("selector stopped");
+	}
+
+	/**
+	 * Read or write a session that is ready.
+	 *
+	 * @param   key
+	 *          the key for the session's socket.
+	 */
+	private void ready(SelectionKey key)
+	{
+		WireSession session = (WireSession)key.attachment();
+		try
+		{
+			if (key.isReadable())
+			{
+				session.readable();
+			}
+			if (key.isValid() && key.isWritable())
+			{
+				session.writable();
+			}
+		}
+		catch (IOException | DataException | CancelledKeyException ex)
+		{
+			session.failed(ex);
+		}
+	}
+}
@@ -0,0 +1,838 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * WireSession.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.connection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import lexa.core.data.DataSet;
+import lexa.core.data.exception.DataException;
+import lexa.core.logging.Logger;
+import lexa.core.server.messaging.IntHashMap;
+
+/**
+ * A session to a remote broker using the binary {@link WireCodec}.
+ * <p>A session carries many logical connections, each on its own channel; see
+ * {@link WireChannel}.
+ * <p>When the session starts each end sends {@code "LXW"} followed by the
+ * highest version of the codec it supports, and both use the lower of the two.
+ * A peer that answers with anything else does not support the codec, and
+ * {@link #connect} fails with an {@link UnsupportedCodecException} so the
+ * caller can fall back to a {@link LegacyLink}.  A peer that does not answer
+ * within the handshake timeout, or drops the socket, is treated as
+ * unreachable.
+ * <p>After the handshake each data set is sent as a frame:
+ * <pre>
+ * frame := length:varint channel:varint payload
+ * </pre>
+ * <p>where the channel is the id of the connection that sent the message, and
+ * the payload is the data set encoded by the session's codec.  The peer
+ * replies on the same channel.  An encoded data set is never empty, so a frame
+ * with no payload closes its channel at the peer.  Version 1 frames have no
+ * channel, so a version 1 session carries a single connection on channel
+ * {@code 0} and is closed with it.
+ * <p>The socket is non-blocking and served by a {@link WireSelector}.  Sending
+ * encodes the frame into a direct buffer and queues it, so it never waits on
+ * the peer; the selector's thread writes the queue with gathering writes.  If
+ * the peer falls so far behind that {@link #MAX_QUEUED} bytes are waiting,
+ * sending fails rather than holding more.
+ *
+ * @author william
+ * @since 2026-10
+ */
+class WireSession
+{
+	/** the largest frame accepted from a peer */
+	static final int MAX_FRAME = 16 << 20;
+	/** the most bytes queued for a peer before sending fails */
+	static final int MAX_QUEUED = 32 << 20;
+	/** the size of the pooled frame and read buffers */
+	private static final int BUFFER_SIZE = 16 << 10;
+	/** the most pooled frame buffers kept by a session */
+	private static final int POOLED_BUFFERS = 32;
+	/** the most frames written by one gathering write */
+	private static final int GATHER = 64;
+	/** the room kept for a frame's length and channel */
+	private static final int HEADER = 10;
+
+	/** logger for events */
+	private final Logger logger;
+	/** the socket to the remote broker */
+	private final SocketChannel socket;
+	/** the selector serving the socket */
+	private final WireSelector selector;
+	/** the encoding for the session */
+	private final WireCodec codec;
+	/** the version of the codec agreed with the peer; {@code 0} until agreed */
+	private volatile int version;
+	/** the listeners for each channel, by channel */
+	private final IntHashMap<Consumer<DataSet>> channels;
+	/** creates the listener for data on a new channel; {@code null} to drop it */
+	private volatile IntFunction<Consumer<DataSet>> channelFactory;
+	/** told when the peer closes a channel; {@code null} if not set */
+	private volatile IntConsumer channelCloseListener;
+	/** told once when the session closes */
+	private final List<Runnable> closeListeners;
+	/** the frames waiting to be written, oldest first */
+	private final Deque<ByteBuffer> writeQueue;
+	/** the frames for the next gathering write; guarded by the write queue */
+	private final ByteBuffer[] gather;
+	/** direct buffers free for new frames */
+	private final Deque<ByteBuffer> freeBuffers;
+	/** the bytes waiting to be written */
+	private int queued;
+	/** indicate if the selector has been asked to write */
+	private boolean writing;
+	/** the key for the socket; only used on the selector's thread */
+	private SelectionKey key;
+	/** the bytes read and not yet decoded; only used on the selector's thread */
+	private ByteBuffer readBuffer;
+	/** indicate if the session is open */
+	private volatile boolean open;
+
+	/**
+	 * Create a session on a connected socket.
+	 * <p>A session accepted from a client is created with version {@code 0}; it
+	 * reads the client's handshake and answers it before any frames.
+	 *
+	 * @param   name
+	 *          the name of the remote broker.
+	 * @param   socket
+	 *          the non-blocking socket to the remote broker.
+	 * @param   version
+	 *          the version of the codec agreed with the peer;
+	 *          or {@code 0} to wait for the peer's handshake.
+	 * @param   selector
+	 *          the selector to serve the socket.
+	 */
+	WireSession(String name, SocketChannel socket, int version, WireSelector selector)
+	{
+		this.logger = new Logger(WireSession.class.getSimpleName(), name);
+		this.socket = socket;
+		this.selector = selector;
+		this.codec = new WireCodec();
+		this.version = version;
+		this.channels = new IntHashMap<>();
+		this.closeListeners = new CopyOnWriteArrayList<>();
+		this.writeQueue = new ArrayDeque<>();
+		this.gather = new ByteBuffer[WireSession.GATHER];
+		this.freeBuffers = new ArrayDeque<>();
+		this.readBuffer = ByteBuffer.allocateDirect(WireSession.BUFFER_SIZE);
+		this.open = true;
+	}
+
+	/**
+	 * Open a session to a remote broker and agree the codec version.
+	 * <p>The handshake is done before the socket is made non-blocking.
+	 *
+	 * @param   name
+	 *          the name of the remote broker.
+	 * @param   address
+	 *          the address of the remote broker.
+	 * @param   port
+	 *          the port of the remote broker.
+	 * @param   timeout
+	 *          the period in milliseconds to wait for the handshake.
+	 * @return  a session using the codec.
+	 * @throws  UnsupportedCodecException
+	 *          when the peer answers without the codec's magic.
+	 * @throws  IOException
+	 *          when the peer cannot be reached or does not answer in time.
+	 */
+	static WireSession connect(String name, InetAddress address, int port, int timeout)
+			throws IOException
+	{
+		SocketChannel socket = SocketChannel.open();
+		try
+		{
+			try
+			{
+				socket.socket().connect(new InetSocketAddress(address, port), timeout);
+			}
+			catch (SocketTimeoutException ex)
+			{
+				// unreachable, rather than not supporting the codec
+				throw new ConnectException("timed out connecting to peer");
+			}
+			socket.socket().setTcpNoDelay(true);
+			socket.socket().setSoTimeout(timeout);
+			ByteBuffer hello = ByteBuffer.wrap(WireSession.hello(WireCodec.VERSION));
+			while (hello.hasRemaining())
+			{
+				socket.write(hello);
+			}
+			// read through the socket's stream, which honours the timeout
+			InputStream in = socket.socket().getInputStream();
+			byte[] reply = new byte[WireCodec.MAGIC.length + 1];
+			for (int r = 0; r < reply.length; )
+			{
+				int read = in.read(reply, r, reply.length - r);
+				if (read < 0)
+				{
+					throw new EOFException("peer closed during handshake");
+				}
+				r += read;
+			}
+			int version = WireSession.version(reply);
+			if (version < 1)
+			{
+				throw new UnsupportedCodecException("peer does not support the wire codec");
+			}
+			socket.configureBlocking(false);
+			WireSession session = new WireSession(name, socket,
+					Math.min(version, WireCodec.VERSION), WireSelector.shared());
+			session.selector.register(session);
+			return session;
+		}
+		catch (IOException ex)
+		{
+			socket.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Build the handshake sent by each end.
+	 *
+	 * @param   version
+	 *          the highest version supported.
+	 * @return  the handshake bytes.
+	 */
+	static byte[] hello(int version)
+	{
+		byte[] hello = new byte[WireCodec.MAGIC.length + 1];
+		System.arraycopy(WireCodec.MAGIC, 0, hello, 0, WireCodec.MAGIC.length);
+		hello[WireCodec.MAGIC.length] = (byte)version;
+		return hello;
+	}
+
+	/**
+	 * Read the version from a handshake.
+	 *
+	 * @param   hello
+	 *          the handshake bytes.
+	 * @return  the version; or {@code 0} if the bytes are not a handshake.
+	 */
+	static int version(byte[] hello)
+	{
+		for (int m = 0; m < WireCodec.MAGIC.length; m++)
+		{
+			if (hello[m] != WireCodec.MAGIC[m])
+			{
+				return 0;
+			}
+		}
+		return hello[WireCodec.MAGIC.length] & 0xff;
+	}
+
+	/**
+	 * Get the version of the codec agreed with the peer.
+	 *
+	 * @return  the version.
+	 */
+	int getVersion()
+	{
+		return this.version;
+	}
+
+	/**
+	 * Indicate if the session carries more than one channel.
+	 *
+	 * @return  {@code true} if frames carry a channel, otherwise {@code false}.
+	 */
+	boolean isMultiplexed()
+	{
+		return this.version >= 2;
+	}
+
+	/**
+	 * Indicate if the peer unpacks a {@code messageList} of messages.
+	 * <p>Peers using version 2 serve the session from a {@link BrokerListener},
+	 * which unpacks message lists; earlier peers take one message per frame.
+	 *
+	 * @return  {@code true} if a batch can be sent as a single frame,
+	 *          otherwise {@code false}.
+	 */
+	boolean isBatching()
+	{
+		return this.version >= 2;
+	}
+
+	/**
+	 * Indicate if the session can still be used.
+	 *
+	 * @return  {@code true} if the session is open, otherwise {@code false}.
+	 */
+	boolean isOpen()
+	{
+		return this.open;
+	}
+
+	/**
+	 * Send data on a channel.
+	 * <p>The frame is queued for the selector to write; this does not wait
+	 * for the peer.
+	 *
+	 * @param   channel
+	 *          the channel for the data.
+	 * @param   data
+	 *          the data to send.
+	 * @throws  DataException
+	 *          when the data cannot be encoded.
+	 * @throws  BackpressureException
+	 *          when too much is queued for the peer; the session is still open.
+	 * @throws  IOException
+	 *          when the session is closed.
+	 */
+	void send(int channel, DataSet data)
+			throws DataException, IOException
+	{
+		boolean wake = false;
+		synchronized (this.writeQueue)
+		{
+			if (!this.open)
+			{
+				throw new IOException("session closed");
+			}
+			if (this.queued >= WireSession.MAX_QUEUED)
+			{
+				throw new BackpressureException("peer is not keeping up, " + this.queued + " bytes queued");
+			}
+			// encoded under the lock, so the frames go in the order the names were added
+			byte[] payload = this.codec.encode(data);
+			ByteBuffer frame = this.frameBuffer(payload.length + WireSession.HEADER);
+			WireSession.putVarint(frame, payload.length);
+			if (this.isMultiplexed())
+			{
+				WireSession.putVarint(frame, channel);
+			}
+			frame.put(payload);
+			frame.flip();
+			this.writeQueue.add(frame);
+			this.queued += frame.remaining();
+			if (!this.writing)
+			{
+				this.writing = true;
+				wake = true;
+			}
+		}
+		if (wake)
+		{
+			this.selector.writeReady(this);
+		}
+	}
+
+	/**
+	 * Get a buffer for a frame; pooled direct buffers are used for most frames.
+	 *
+	 * @param   size
+	 *          the most bytes in the frame.
+	 * @return  an empty buffer.
+	 */
+	private ByteBuffer frameBuffer(int size)
+	{
+		if (size > WireSession.BUFFER_SIZE)
+		{
+			return ByteBuffer.allocate(size);
+		}
+		ByteBuffer buffer = this.freeBuffers.poll();
+		return buffer != null ?
+				buffer :
+				ByteBuffer.allocateDirect(WireSession.BUFFER_SIZE);
+	}
+
+	/**
+	 * Set the factory for listeners on channels that have none.
+	 * <p>Used by a broker accepting clients, where each new channel is a new
+	 * connection.
+	 *
+	 * @param   channelFactory
+	 *          creates the listener for data on a new channel.
+	 */
+	void setChannelFactory(IntFunction<Consumer<DataSet>> channelFactory)
+	{
+		this.channelFactory = channelFactory;
+	}
+
+	/**
+	 * Set the listener told when the peer closes a channel.
+	 * <p>Used by a broker accepting clients, to release the connection for the
+	 * channel.
+	 *
+	 * @param   channelCloseListener
+	 *          called, on the selector's thread, with each channel the peer
+	 *          closes.
+	 */
+	void setChannelCloseListener(IntConsumer channelCloseListener)
+	{
+		this.channelCloseListener = channelCloseListener;
+	}
+
+	/**
+	 * Add a listener told when the session closes.
+	 * <p>A listener added to a session that has already closed is called at once.
+	 *
+	 * @param   closeListener
+	 *          called once when the session closes.
+	 */
+	void addCloseListener(Runnable closeListener)
+	{
+		this.closeListeners.add(closeListener);
+		if (!this.open && this.closeListeners.remove(closeListener))
+		{
+			closeListener.run();
+		}
+	}
+
+	/**
+	 * Remove a listener told when the session closes.
+	 *
+	 * @param   closeListener
+	 *          a listener added by {@link #addCloseListener(Runnable)}.
+	 */
+	void removeCloseListener(Runnable closeListener)
+	{
+		this.closeListeners.remove(closeListener);
+	}
+
+	/**
+	 * Start receiving data on a channel.
+	 *
+	 * @param   channel
+	 *          the channel.
+	 * @param   listener
+	 *          called, on the selector's thread, with each data set received.
+	 */
+	void open(int channel, Consumer<DataSet> listener)
+	{
+		synchronized (this.channels)
+		{
+			this.channels.put(channel, listener);
+		}
+	}
+
+	/**
+	 * Stop receiving data on a channel.
+	 *
+	 * @param   channel
+	 *          the channel.
+	 */
+	void release(int channel)
+	{
+		synchronized (this.channels)
+		{
+			this.channels.remove(channel);
+		}
+	}
+
+	/**
+	 * Stop receiving data on a channel and tell the peer it is closed.
+	 * <p>The close frame is queued even when the peer is behind, as it is
+	 * small and releases the peer's side of the channel.
+	 *
+	 * @param   channel
+	 *          the channel.
+	 */
+	void closeChannel(int channel)
+	{
+		this.release(channel);
+		if (!this.isMultiplexed())
+		{
+			return;
+		}
+		boolean wake = false;
+		synchronized (this.writeQueue)
+		{
+			if (!this.open)
+			{
+				return;
+			}
+			ByteBuffer frame = this.frameBuffer(WireSession.HEADER);
+			WireSession.putVarint(frame, 0);
+			WireSession.putVarint(frame, channel);
+			frame.flip();
+			this.writeQueue.add(frame);
+			this.queued += frame.remaining();
+			if (!this.writing)
+			{
+				this.writing = true;
+				wake = true;
+			}
+		}
+		if (wake)
+		{
+			this.selector.writeReady(this);
+		}
+	}
+
+	/**
+	 * Register the socket for reading; called on the selector's thread.
+	 *
+	 * @param   selector
+	 *          the selector to register with.
+	 * @throws  IOException
+	 *          when the socket cannot be registered.
+	 */
+	void registered(Selector selector)
+			throws IOException
+	{
+		if (!this.open)
+		{
+			return;
+		}
+		this.key = this.socket.register(selector, SelectionKey.OP_READ, this);
+	}
+
+	/**
+	 * Watch for the socket being writable; called on the selector's thread.
+	 */
+	void watchWrites()
+	{
+		if (this.key != null && this.key.isValid())
+		{
+			this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Write as much of the queue as the socket will take; called on the
+	 * selector's thread.
+	 *
+	 * @throws  IOException
+	 *          when the socket cannot be written.
+	 */
+	void writable()
+			throws IOException
+	{
+		synchronized (this.writeQueue)
+		{
+			while (!this.writeQueue.isEmpty())
+			{
+				int count = 0;
+				for (Iterator<ByteBuffer> frames = this.writeQueue.iterator();
+						count < WireSession.GATHER && frames.hasNext(); count++)
+				{
+					this.gather[count] = frames.next();
+				}
+				long written;
+				try
+				{
+					written = this.socket.write(this.gather, 0, count);
+				}
+				finally
+				{
+					// not kept, so written frames can be collected
+					Arrays.fill(this.gather, 0, count, null);
+				}
+				this.queued -= written;
+				while (!this.writeQueue.isEmpty() && !this.writeQueue.peek().hasRemaining())
+				{
+					ByteBuffer frame = this.writeQueue.poll();
+					if (frame.isDirect() && this.freeBuffers.size() < WireSession.POOLED_BUFFERS)
+					{
+						frame.clear();
+						this.freeBuffers.push(frame);
+					}
+				}
+				if (written == 0)
+				{
+					return; // the socket is full, wait to be writable again
+				}
+			}
+			this.writing = false;
+			this.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Read and pass on the frames that have arrived; called on the selector's
+	 * thread.
+	 *
+	 * @throws  IOException
+	 *          when the socket cannot be read or a frame is too large.
+	 * @throws  DataException
+	 *          when a frame cannot be decoded.
+	 */
+	void readable()
+			throws IOException, DataException
+	{
+		if (this.socket.read(this.readBuffer) < 0)
+		{
+			this.logger.info("session closed by peer");
+			this.close();
+			return;
+		}
+		this.readBuffer.flip();
+		if (this.version == 0 && !this.handshake())
+		{
+			this.readBuffer.compact();
+			return;
+		}
+		try
+		{
+			this.readFrames();
+		}
+		finally
+		{
+			// keep the partial frame, even if a frame could not be delivered
+			this.readBuffer.compact();
+		}
+	}
+
+	/**
+	 * Pass on the whole frames in the read buffer; called on the selector's
+	 * thread.
+	 *
+	 * @throws  IOException
+	 *          when a frame is too large.
+	 * @throws  DataException
+	 *          when a frame cannot be decoded.
+	 */
+	private void readFrames()
+			throws IOException, DataException
+	{
+		while (this.readBuffer.hasRemaining())
+		{
+			int start = this.readBuffer.position();
+			int length = WireSession.getVarint(this.readBuffer);
+			int channel = length < 0 || !this.isMultiplexed() ?
+					0 :
+					WireSession.getVarint(this.readBuffer);
+			if (length < 0 || channel < 0)
+			{
+				this.readBuffer.position(start);
+				break;
+			}
+			if (length > WireSession.MAX_FRAME)
+			{
+				throw new IOException("frame too large: " + length);
+			}
+			if (this.readBuffer.remaining() < length)
+			{
+				int needed = this.readBuffer.position() - start + length;
+				this.readBuffer.position(start);
+				if (needed > this.readBuffer.capacity())
+				{
+					ByteBuffer larger = ByteBuffer.allocateDirect(needed);
+					larger.put(this.readBuffer);
+					larger.flip();
+					this.readBuffer = larger;
+				}
+				break;
+			}
+			if (length == 0 && this.isMultiplexed())
+			{
+				this.channelClosed(channel);
+				continue;
+			}
+			byte[] payload = new byte[length];
+			this.readBuffer.get(payload);
+			// always decoded, to keep the dictionary in step with the peer
+			this.deliver(channel, this.codec.decode(payload));
+		}
+	}
+
+	/**
+	 * Read a client's handshake and answer it; called on the selector's thread.
+	 *
+	 * @return  {@code true} if the version is agreed;
+	 *          {@code false} if more bytes are needed.
+	 * @throws  IOException
+	 *          when the client does not use the codec.
+	 */
+	private boolean handshake()
+			throws IOException
+	{
+		byte[] hello = new byte[WireCodec.MAGIC.length + 1];
+		if (this.readBuffer.remaining() < hello.length)
+		{
+			return false;
+		}
+		this.readBuffer.get(hello);
+		int peer = WireSession.version(hello);
+		if (peer < 1)
+		{
+			throw new IOException("client does not use the wire codec");
+		}
+		int agreed = Math.min(peer, WireCodec.VERSION);
+		synchronized (this.writeQueue)
+		{
+			ByteBuffer reply = ByteBuffer.wrap(WireSession.hello(agreed));
+			this.writeQueue.add(reply);
+			this.queued += reply.remaining();
+			this.writing = true;
+		}
+		this.version = agreed;
+		this.watchWrites();
+		return true;
+	}
+
+	/**
+	 * Pass data to the listener for its channel.
+	 *
+	 * @param   channel
+	 *          the channel the data arrived on.
+	 * @param   data
+	 *          the data.
+	 */
+	private void deliver(int channel, DataSet data)
+	{
+		Consumer<DataSet> listener;
+		synchronized (this.channels)
+		{
+			listener = this.channels.get(channel);
+			IntFunction<Consumer<DataSet>> factory = this.channelFactory;
+			if (listener == null && factory != null)
+			{
+				listener = factory.apply(channel);
+				this.channels.put(channel, listener);
+			}
+		}
+		if (listener != null)
+		{
+			listener.accept(data);
+		}
+		else
+		{
+			this.logger.debug("data for closed channel " + channel, data);
+		}
+	}
+
+	/**
+	 * Release a channel the peer has closed; called on the selector's thread.
+	 *
+	 * @param   channel
+	 *          the channel.
+	 */
+	private void channelClosed(int channel)
+	{
+		this.release(channel);
+		IntConsumer listener = this.channelCloseListener;
+		if (listener != null)
+		{
+			listener.accept(channel);
+		}
+	}
+
+	/**
+	 * Close the session after a failure; called on the selector's thread.
+	 *
+	 * @param   cause
+	 *          the reason for the failure.
+	 */
+	void failed(Exception cause)
+	{
+		if (this.open)
+		{
+			this.logger.error("session failed", cause);
+		}
+		this.close();
+	}
+
+	/**
+	 * Close the session and every channel on it.
+	 */
+	void close()
+	{
+		synchronized (this.writeQueue)
+		{
+			if (!this.open)
+			{
+				return;
+			}
+			this.open = false;
+			this.writeQueue.clear();
+			this.queued = 0;
+		}
+		for (Runnable listener : this.closeListeners)
+		{
+			if (this.closeListeners.remove(listener))
+			{
+				listener.run();
+			}
+		}
+		try
+		{
+			this.socket.close();
+		}
+		catch (IOException ex)
+		{
+			this.logger.error("close failed", ex);
+		}
+	}
+
+	/**
+	 * Put a varint in a buffer.
+	 *
+	 * @param   buffer
+	 *          the buffer.
+	 * @param   value
+	 *          the value, treated as unsigned.
+	 */
+	static void putVarint(ByteBuffer buffer, int value)
+	{
+		while ((value & ~0x7f) != 0)
+		{
+			buffer.put((byte)((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+
+	/**
+	 * Get a varint from a buffer.
+	 *
+	 * @param   buffer
+	 *          the buffer.
+	 * @return  the value; or {@code -1} if the buffer ends first.
+	 * @throws  IOException
+	 *          when the value is too long.
+	 */
+	static int getVarint(ByteBuffer buffer)
+			throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			if (!buffer.hasRemaining())
+			{
+				return -1;
+			}
+			int b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+			{
+				if (value < 0)
+				{
+					throw new IOException("varint too large");
+				}
+				return value;
+			}
+		}
+		throw new IOException("varint too long");
+	}
+}
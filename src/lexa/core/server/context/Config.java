@@ -19,24 +19,64 @@ public class Config {
     public static final String CLASS_PATH       = "class";
     /** "{@code config}" */
     public static final String CONFIG           = "config";
+    /** "{@code cache}" */
+    public static final String CACHE            = "cache";
+    /** "{@code codec}" */
+    public static final String CODEC            = "codec";
+    /** "{@code coalesce}" */
+    public static final String COALESCE         = "coalesce";
     /** "{@code connectionName}" */
     public static final String CONNECTION_NAME  = "connectionName";
+    /** "{@code concurrent}" */
+    public static final String CONCURRENT       = "concurrent";
+    /** "{@code batchSize}" */
+    public static final String BATCH_SIZE       = "batchSize";
+    /** "{@code batchRequests}" */
+    public static final String BATCH_REQUESTS   = "batchRequests";
+    /** "{@code batchWait}" */
+    public static final String BATCH_WAIT       = "batchWait";
     /** "{@code buildReply}" */
     public static final String BUILD_REPLY   = "buildReply";
     /** "{@code handleRequest}" */
     public static final String HANDLE_REQUEST   = "handleRequest";
     /** "{@code logging}" */
     public static final String LOGGING          = "logging";
+    /** "{@code listener}" */
+    public static final String LISTENER         = "listener";
+    /** "{@code keyFields}" */
+    public static final String KEY_FIELDS       = "keyFields";
+    /** "{@code maxBytes}" */
+    public static final String MAX_BYTES        = "maxBytes";
+    /** "{@code maxEntries}" */
+    public static final String MAX_ENTRIES      = "maxEntries";
     /** "{@code maxProcesses}" */
     public static final String MAX_PROCESSES    = "maxProcesses";
+    /** "{@code minProcesses}" */
+    public static final String MIN_PROCESSES    = "minProcesses";
+    /** "{@code idleTimeout}" */
+    public static final String IDLE_TIMEOUT     = "idleTimeout";
+    /** "{@code prewarm}" */
+    public static final String PREWARM          = "prewarm";
     /** "{@code name}" */
     public static final String NAME             = "name";
+    /** "{@code partitionKey}" */
+    public static final String PARTITION_KEY    = "partitionKey";
+    /** "{@code partitions}" */
+    public static final String PARTITIONS       = "partitions";
+    /** "{@code pool}" */
+    public static final String POOL             = "pool";
+    /** "{@code poolList}" */
+    public static final String POOL_LIST        = "poolList";
+    /** "{@code poolSize}" */
+    public static final String POOL_SIZE        = "poolSize";
     /** "{@code processList}" */
     public static final String PROCESS_LIST     = "processList";
    /** "{@code serviceList}" */
     public static final String SERVICE_LIST     = "serviceList";
      /** "{@code timeout}" */
     public static final String TIMEOUT          = "timeout";
+    /** "{@code ttl}" */
+    public static final String TTL              = "ttl";
     /** "{@code wildcard}" */
     public static final String WILDCARD         = "wildcard";
     public static final String DATA             = "data";
@@ -44,6 +84,16 @@ public class Config {
     public static final String NEXT_REQUEST     = "nextRequest";
     public static final String HOST             = "host";
     public static final String PORT             = "port";
+    /** "{@code sessions}" */
+    public static final String SESSIONS         = "sessions";
+    /** "{@code selectors}" */
+    public static final String SELECTORS        = "selectors";
+    /** "{@code window}" */
+    public static final String WINDOW           = "window";
+    /** "{@code resend}" */
+    public static final String RESEND           = "resend";
+    /** "{@code retries}" */
+    public static final String RETRIES          = "retries";
     public static final String BROKER_LIST      = "brokerList";
     public static final String LOG_FILE         = "logFile";
 	public static final String TYPE				= "type";
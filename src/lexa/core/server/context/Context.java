@@ -27,6 +27,9 @@ public class Context {
     public static final String CLOSE            = "close";
     /** "{@code connectionId}" */
     public static final String CONNECTION_ID    = "connectionId";
+    public static final String CREDIT           = "credit";
+    /** "{@code deadline}" */
+    public static final String DEADLINE         = "deadline";
     /** "{@code message}" */
     public static final String MESSAGE          = "message";
     /** "{@code messageList}" */
@@ -30,12 +30,47 @@ public class Value {
 												= "PassThrough";
     /** The value "{@code CLOSE_MESSAGE}" */
     public static final String CLOSE_MESSAGE    = "CLOSE_MESSAGE";
+    /** The value "{@code CREDIT}", a system request granting more streamed replies */
+    public static final String CREDIT           = "CREDIT";
     /** The value "{@code local}" */
     public static final String LOCAL            = "local";
     /** The value {@code 30000} or 30 seconds */
     public static final int DEFAULT_TIMEOUT     = 30000;
+    /** The value {@code 10} milliseconds per tick of the message timer */
+    public static final int TIMER_TICK          = 10;
+    /** The value "{@code default}" for the broker's shared pool */
+    public static final String DEFAULT_POOL     = "default";
+    /** The value {@code 1024} unknown names cached by the routing table */
+    public static final int ROUTE_CACHE_SIZE    = 1024;
+    /** The value {@code 1000} microseconds a process batch waits to fill */
+    public static final int DEFAULT_BATCH_WAIT  = 1000;
+    /** The value {@code 1000} replies kept by a process cache */
+    public static final int DEFAULT_CACHE_ENTRIES = 1000;
+    /** The value {@code 64} points on the hash ring for each process partition */
+    public static final int PARTITION_POINTS    = 64;
+    /** The value "{@code binary}" for the wire codec between brokers */
+    public static final String CODEC_BINARY     = "binary";
+    /** The value "{@code legacy}" for the original format between brokers */
+    public static final String CODEC_LEGACY     = "legacy";
+    /** The value {@code 1000} milliseconds to agree a codec with a remote broker */
+    public static final int HANDSHAKE_TIMEOUT   = 1000;
+    /** The value {@code 2} selector threads serving a broker's listener */
+    public static final int DEFAULT_SELECTORS   = 2;
+    /** The value {@code 256} messages in flight on each remote connection */
+    public static final int DEFAULT_WINDOW      = 256;
+    /** The value {@code 5} attempts to reconnect to a remote broker */
+    public static final int DEFAULT_RETRIES     = 5;
+    /** The value {@code 100} milliseconds before the first attempt to reconnect */
+    public static final int RETRY_DELAY         = 100;
+    /** The value {@code 5000} milliseconds at most between attempts to reconnect */
+    public static final int MAX_RETRY_DELAY     = 5000;
+    /** The value {@code 64} messages per wake up */
+    public static final int DEFAULT_BATCH_SIZE  = 64;
 	
 	public static final String HOST_SERVICE		= "host";
 	public static final String TYPE_ASYNC		= "async";
+	public static final String TYPE_BATCH		= "batch";
+	public static final String TYPE_POOLED		= "pooled";
+	public static final String TYPE_VIRTUAL		= "virtual";
 	public static final String TYPE_INLINE		= "inline";
 }
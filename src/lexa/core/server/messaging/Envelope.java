@@ -0,0 +1,204 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * Envelope.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.messaging;
+
+import lexa.core.data.DataSet;
+import lexa.core.server.context.Context;
+
+/**
+ * A message passing through the broker.
+ * <p>The header fields used to route a message and return its replies are
+ * held as plain fields, read once when the message enters the broker, so each
+ * hop does not look them up again by name.  The message data is only built
+ * when it is needed at a boundary: when it is handed to a process, sent to a
+ * remote broker or passed back to a {@link Message}.
+ * <p>The header fields are fixed; a hop may add to the data, for example the
+ * {@code return} and {@code close} fields of a bounced message.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class Envelope
+{
+	/** the destination service */
+	private final String service;
+	/** the type of message */
+	private final String message;
+	/** the id of the connection that submitted the message */
+	private final int connectionId;
+	/** the id of the message on the connection */
+	private final int sourceId;
+	/** the time, in milliseconds since the epoch, the message expires; or {@code 0} */
+	private final long deadline;
+	/** the system request; or {@code null} for a normal message */
+	private final String systemRequest;
+	/** the content of the request; for a system request, the request of the message it applies to */
+	private final DataSet request;
+	/** the message the envelope was built from; {@code null} if built from data */
+	private final Message source;
+	/** the message data, built on first use */
+	private DataSet data;
+
+	/**
+	 * Create an envelope for message data.
+	 * <p>Used where messages enter the broker as data, from a remote broker or
+	 * a process.
+	 *
+	 * @param   data
+	 *          the message data, including the header.
+	 */
+	public Envelope(DataSet data)
+	{
+		this(data, data.getDataSet(Context.REQUEST));
+	}
+
+	/**
+	 * Create an envelope for a system request as data.
+	 * <p>The request of the message the system request applies to is kept so
+	 * that it is routed the same way; the request is not part of the data.
+	 *
+	 * @param   data
+	 *          the system request data, including the header.
+	 * @param   request
+	 *          the request of the message the system request applies to;
+	 *          or {@code null} if not known.
+	 */
+	public Envelope(DataSet data, DataSet request)
+	{
+		Integer cid = data.getInteger(Context.CONNECTION_ID);
+		Integer sid = data.getInteger(Context.SOURCE_ID);
+		this.service = data.getString(Context.SERVICE);
+		this.message = data.getString(Context.MESSAGE);
+		this.connectionId = cid == null ? 0 : cid;
+		this.sourceId = sid == null ? 0 : sid;
+		this.deadline = data.contains(Context.DEADLINE) ? data.getLong(Context.DEADLINE) : 0;
+		this.systemRequest = data.getString(Context.SYSTEM_REQUEST);
+		this.request = request;
+		this.source = null;
+		this.data = data;
+	}
+
+	/**
+	 * Create an envelope for a message being submitted.
+	 *
+	 * @param   source
+	 *          the message being submitted.
+	 * @param   connectionId
+	 *          the id of the connection submitting the message.
+	 * @param   sourceId
+	 *          the id of the message on the connection.
+	 * @param   systemRequest
+	 *          the system request; or {@code null} for the message's request.
+	 */
+	Envelope(Message source, int connectionId, int sourceId, String systemRequest)
+	{
+		this.service = source.getService();
+		this.message = source.getMessage();
+		this.connectionId = connectionId;
+		this.sourceId = sourceId;
+		this.deadline = source.getDeadline();
+		this.systemRequest = systemRequest;
+		this.request = source.getRequestContent();
+		this.source = source;
+		this.data = null;
+	}
+
+	public String getService()
+	{
+		return this.service;
+	}
+
+	public String getMessage()
+	{
+		return this.message;
+	}
+
+	public int getConnectionId()
+	{
+		return this.connectionId;
+	}
+
+	public int getSourceId()
+	{
+		return this.sourceId;
+	}
+
+	public long getDeadline()
+	{
+		return this.deadline;
+	}
+
+	public String getSystemRequest()
+	{
+		return this.systemRequest;
+	}
+
+	/**
+	 * Get the content of the request.
+	 * <p>A system request built from a {@link Message} gives the request of
+	 * that message, so that it can be routed the same way; the request is not
+	 * part of the system request's data.
+	 *
+	 * @return  the request; or {@code null} if there is none.
+	 */
+	public DataSet getRequest()
+	{
+		return this.request;
+	}
+
+	/**
+	 * Check if the message has passed its deadline.
+	 * <p>System requests never expire, so that closing a message is always passed on.
+	 *
+	 * @return  {@code true} if the message has a deadline that has passed,
+	 *          otherwise {@code false}.
+	 */
+	public boolean isExpired()
+	{
+		return this.deadline != 0 &&
+				this.systemRequest == null &&
+				this.deadline < System.currentTimeMillis();
+	}
+
+	/**
+	 * Get the message data, building it if needed.
+	 *
+	 * @return  the message data, including the header.
+	 */
+	public synchronized DataSet getData()
+	{
+		if (this.data == null)
+		{
+			this.data = this.source.getHeader(this.connectionId, this.sourceId);
+			if (this.systemRequest != null)
+			{
+				this.data.put(Context.SYSTEM_REQUEST, this.systemRequest);
+			}
+			else
+			{
+				this.data.put(Context.REQUEST, this.request);
+			}
+		}
+		return this.data;
+	}
+
+	/**
+	 * Describe the message from its header fields, without building its data.
+	 *
+	 * @return  the service, message and ids of the message, and any system request.
+	 */
+	@Override
+	public String toString()
+	{
+		return this.service + '.' + this.message + ' ' +
+				this.connectionId + ':' + this.sourceId +
+				(this.systemRequest == null ? "" : ' ' + this.systemRequest);
+	}
+}
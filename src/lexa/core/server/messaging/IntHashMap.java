@@ -0,0 +1,270 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * IntHashMap.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A map from {@code int} keys to values, used to find messages and connections by id.
+ * <p>Keys and values are held in two arrays using open addressing with linear
+ * probing, so a lookup neither boxes the key nor follows a chain of entries.
+ * Removing an entry shifts back the entries that follow it, so the table never
+ * fills with deleted markers however many ids pass through it.
+ * <p>Values may not be {@code null}; a {@code null} value marks an empty slot.
+ * The map is not thread safe.
+ *
+ * @param   <V>
+ *          the type of value
+ * @author william
+ * @since 2026-10
+ */
+public class IntHashMap<V>
+{
+	/** the smallest table used */
+	private static final int MIN_CAPACITY = 16;
+
+	/** the key in each slot */
+	private int[] keys;
+	/** the value in each slot; {@code null} for an empty slot */
+	private Object[] values;
+	/** mask for the slot index */
+	private int mask;
+	/** the number of entries */
+	private int size;
+
+	/**
+	 * Create an empty map.
+	 */
+	public IntHashMap()
+	{
+		this(IntHashMap.MIN_CAPACITY);
+	}
+
+	/**
+	 * Create an empty map with room for a number of entries.
+	 *
+	 * @param   expected
+	 *          the number of entries expected.
+	 */
+	public IntHashMap(int expected)
+	{
+		int capacity = IntHashMap.MIN_CAPACITY;
+		while (capacity < expected * 2)
+		{
+			capacity <<= 1;
+		}
+		this.allocate(capacity);
+	}
+
+	private void allocate(int capacity)
+	{
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Get the first slot to probe for a key.
+	 * <p>Ids are usually sequential, so the bits are mixed to stop runs of keys
+	 * filling neighbouring slots.
+	 */
+	private int slot(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & this.mask;
+	}
+
+	/**
+	 * Find the slot holding a key.
+	 *
+	 * @return  the slot; or {@code -1} if the key is not in the map.
+	 */
+	private int find(int key)
+	{
+		for (int i = this.slot(key); this.values[i] != null; i = (i + 1) & this.mask)
+		{
+			if (this.keys[i] == key)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the value for a key.
+	 *
+	 * @param   key
+	 *          the key.
+	 * @return  the value; or {@code null} if the key is not in the map.
+	 */
+	public V get(int key)
+	{
+		int i = this.find(key);
+		return i < 0 ? null : (V)this.values[i];
+	}
+
+	/**
+	 * Check if the map has a key.
+	 *
+	 * @param   key
+	 *          the key.
+	 * @return  {@code true} if the key is in the map.
+	 */
+	public boolean containsKey(int key)
+	{
+		return this.find(key) >= 0;
+	}
+
+	/**
+	 * Put a value in the map.
+	 *
+	 * @param   key
+	 *          the key.
+	 * @param   value
+	 *          the value; may not be {@code null}.
+	 * @return  the previous value for the key; or {@code null} if there was none.
+	 */
+	public V put(int key, V value)
+	{
+		if (value == null)
+		{
+			throw new NullPointerException("IntHashMap.put: null value for " + key);
+		}
+		int i = this.slot(key);
+		while (this.values[i] != null)
+		{
+			if (this.keys[i] == key)
+			{
+				V previous = (V)this.values[i];
+				this.values[i] = value;
+				return previous;
+			}
+			i = (i + 1) & this.mask;
+		}
+		this.keys[i] = key;
+		this.values[i] = value;
+		if (++this.size * 2 > this.values.length)
+		{
+			this.resize(this.values.length << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Remove a key from the map.
+	 *
+	 * @param   key
+	 *          the key.
+	 * @return  the value for the key; or {@code null} if the key was not in the map.
+	 */
+	public V remove(int key)
+	{
+		int i = this.find(key);
+		if (i < 0)
+		{
+			return null;
+		}
+		V value = (V)this.values[i];
+		// shift back any following entries that probed past this slot
+		int gap = i;
+		for (int j = (gap + 1) & this.mask; this.values[j] != null; j = (j + 1) & this.mask)
+		{
+			int home = this.slot(this.keys[j]);
+			if (((j - home) & this.mask) >= ((j - gap) & this.mask))
+			{
+				this.keys[gap] = this.keys[j];
+				this.values[gap] = this.values[j];
+				gap = j;
+			}
+		}
+		this.values[gap] = null;
+		this.size--;
+		return value;
+	}
+
+	/**
+	 * Get the number of entries.
+	 *
+	 * @return  the number of entries in the map.
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Check if the map is empty.
+	 *
+	 * @return  {@code true} if there are no entries.
+	 */
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	/**
+	 * Get the keys in the map.
+	 *
+	 * @return  a copy of the keys, in no particular order.
+	 */
+	public int[] keys()
+	{
+		int[] copy = new int[this.size];
+		int k = 0;
+		for (int i = 0; i < this.values.length; i++)
+		{
+			if (this.values[i] != null)
+			{
+				copy[k++] = this.keys[i];
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Get the values in the map.
+	 *
+	 * @return  a copy of the values, in no particular order.
+	 */
+	public List<V> values()
+	{
+		List<V> copy = new ArrayList<>(this.size);
+		for (int i = 0; i < this.values.length; i++)
+		{
+			if (this.values[i] != null)
+			{
+				copy.add((V)this.values[i]);
+			}
+		}
+		return copy;
+	}
+
+	private void resize(int capacity)
+	{
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++)
+		{
+			if (oldValues[i] != null)
+			{
+				int j = this.slot(oldKeys[i]);
+				while (this.values[j] != null)
+				{
+					j = (j + 1) & this.mask;
+				}
+				this.keys[j] = oldKeys[i];
+				this.values[j] = oldValues[i];
+			}
+		}
+	}
+}
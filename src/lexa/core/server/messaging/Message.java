@@ -9,6 +9,8 @@
  */
 package lexa.core.server.messaging;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import lexa.core.data.DataSet;
 import lexa.core.data.SealedDataSet;
 import lexa.core.data.ArrayDataSet;
@@ -43,6 +45,16 @@ public class Message {
     /** Indicates if a new reply has been received since last reading the reply stack. */
     private boolean newReplyReceived;
     private int connectionId;
+    /** The time, in milliseconds since the epoch, after which the caller no longer wants a reply */
+    private long deadline;
+    /** The number of reply chunks that may be waiting to be read; {@code 0} if replies are merged */
+    private int window;
+    /** The reply chunks waiting to be read when streaming */
+    private final Queue<DataSet> chunks;
+    /** The number of chunks read since credit was last granted */
+    private int consumed;
+    /** The connection that submitted the message, to grant credit to */
+    private Connection connection;
 
     public String getService() {
         return service;
@@ -56,6 +68,14 @@ public class Message {
         return new SealedDataSet(request);
     }
 
+    /**
+     * Get the content of the request, for building the envelope.
+     * @return  the request.
+     */
+    DataSet getRequestContent() {
+        return this.request;
+    }
+
     public DataSet getSource() {
         return new SealedDataSet(source);
     }
@@ -73,6 +93,27 @@ public class Message {
     }
     private int sourceId;
 
+    /**
+     * Get the deadline for the message.
+     *
+     * @return  the time, in milliseconds since the epoch, after which the caller
+     *          no longer wants a reply; or {@code 0} if there is no deadline.
+     */
+    public long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Set the deadline for the message.
+     *
+     * @param   deadline
+     *          the time, in milliseconds since the epoch, after which the caller
+     *          no longer wants a reply; or {@code 0} for no deadline.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     public Message(MessageSource messageSource, DataSet message) {
         this(messageSource,
                 message.getString(Context.SERVICE),
@@ -80,6 +121,26 @@ public class Message {
                 message.getDataSet(Context.REQUEST),
                 message.getDataSet(Context.SOURCE),
                 message.getInteger(Context.SOURCE_REF));
+        if (message.contains(Context.DEADLINE)) {
+            this.deadline = message.getLong(Context.DEADLINE);
+        }
+    }
+
+    /**
+     * Check if a message has passed its deadline.
+     * <p>System requests never expire, so that closing a message is always passed on.
+     *
+     * @param   message
+     *          the message data, including the header.
+     * @return  {@code true} if the message has a deadline that has passed,
+     *          otherwise {@code false}.
+     */
+    public static boolean isExpired(DataSet message) {
+        if (!message.contains(Context.DEADLINE) ||
+                message.contains(Context.SYSTEM_REQUEST)) {
+            return false;
+        }
+        return message.getLong(Context.DEADLINE) < System.currentTimeMillis();
     }
     /**
      * Create a new message to submit to the {@link lexa.core.server.Broker}.
@@ -153,6 +214,70 @@ public class Message {
         this.sourceReference = sourceReference;
         this.replyReceived = false;
         this.newReplyReceived = false;
+        this.chunks = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Ask for the replies as a stream of chunks.
+     * <p>A process may send partial replies before the one that closes the
+     * message.  When streaming, each reply is kept as a separate chunk, read with
+     * {@link #nextChunk()}, rather than merged into one reply.  The process sends
+     * at most {@code window} chunks ahead of the caller; reading chunks grants it
+     * credit to send more, so a slow reader never leaves more than a window of
+     * replies waiting.
+     * <p>Must be called before the message is submitted.
+     *
+     * @param   window
+     *          the most chunks that may be waiting to be read.
+     */
+    public void setStreaming(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Indicates if the replies are streamed.
+     *
+     * @return  {@code true} if the replies are streamed, otherwise {@code false}.
+     */
+    public boolean isStreaming() {
+        return this.window > 0;
+    }
+
+    /**
+     * Set the connection that submitted the message.
+     * <p>Used by the {@link Connection} to receive credit for streamed replies.
+     *
+     * @param   connection
+     *          the connection submitting the message.
+     */
+    public void setConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Read the next chunk of a streamed reply.
+     * <p>Credit for more chunks is granted once half the window has been read.
+     *
+     * @return  the next reply chunk; or {@code null} if none is waiting.
+     */
+    public DataSet nextChunk() {
+        DataSet chunk = this.chunks.poll();
+        if (chunk == null || this.connection == null) {
+            return chunk;
+        }
+        int grant;
+        synchronized (this) {
+            if (++this.consumed < Math.max(1, this.window / 2)) {
+                return chunk;
+            }
+            grant = this.consumed;
+            this.consumed = 0;
+        }
+        this.connection.grantCredit(this.sourceId, grant);
+        return chunk;
     }
 
     /**
@@ -162,7 +287,11 @@ public class Message {
      *          the reply data for the message.
      */
     public void addReply (DataSet reply) {
-		this.reply.put(reply);
+        if (this.window > 0) {
+            this.chunks.add(reply);
+        } else {
+            this.reply.put(reply);
+        }
 
         boolean newReply = !this.replyReceived;
         this.replyReceived = true;
@@ -175,7 +304,7 @@ public class Message {
                 this.messageSource.updateReceived(this);
             }
         }
-        if (reply.getBoolean(Context.CLOSE)) {
+        if (Boolean.TRUE.equals(reply.getBoolean(Context.CLOSE))) {
             this.close();
         }
     }
@@ -189,6 +318,8 @@ public class Message {
      * message  &lt;message&gt;
      * connectionId  &lt;connectionId&gt;
      * sourceId  &lt;sourceId&gt;
+     * [deadline  &lt;deadline&gt;]
+     * [credit  &lt;window&gt;]
      * [source {
      *   service  &lt;service&gt;
      *   message  &lt;message&gt;
@@ -217,6 +348,12 @@ public class Message {
         if (this.sourceReference != null) {
             header.put(Context.SOURCE_REF, this.sourceReference);
         }
+        if (this.deadline != 0) {
+            header.put(Context.DEADLINE, this.deadline);
+        }
+        if (this.window != 0) {
+            header.put(Context.CREDIT, this.window);
+        }
         if (this.source != null) {
             header.put(Context.SOURCE, this.source);
         }
@@ -261,6 +398,25 @@ public class Message {
         return requestData;
     }
 
+    /**
+     * Get an envelope to submit the message to the broker.
+     * <p>The header data is not built unless the envelope leaves the broker.
+     *
+     * @param   connectionId
+     *          the id for the {@link Connection} submitting the message.
+     * @param   sourceId
+     *          the sequence id for the message from the {@link Connection}.
+     * @param   systemRequest
+     *          a system request, such as {@link lexa.core.server.context.Value#CLOSE_MESSAGE};
+     *          or {@code null} to submit the message's request.
+     * @return  an envelope for the message.
+     */
+    public Envelope getEnvelope(int connectionId, int sourceId, String systemRequest) {
+        this.connectionId = connectionId;
+        this.sourceId = sourceId;
+        return new Envelope(this, connectionId, sourceId, systemRequest);
+    }
+
     /**
      * Indicates if a new reply has been received since last reading the reply stack.
      *
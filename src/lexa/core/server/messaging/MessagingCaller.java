@@ -6,7 +6,7 @@
 
 package lexa.core.server.messaging;
 
-import lexa.core.data.DataSet;
+import java.util.Collection;
 
 /**
  *
@@ -14,9 +14,25 @@ import lexa.core.data.DataSet;
  */
 public interface MessagingCaller
 {
-	public void inbound(DataSet message);
+	public void inbound(Envelope message);
 
-	public void outbound(DataSet message);
+	/**
+	 * Pass a batch of messages inbound.
+	 * <p>Containers queue the whole batch and wake their thread once; by
+	 * default each message is passed on in turn.
+	 *
+	 * @param   messages
+	 *          the messages, in order.
+	 */
+	public default void inboundAll(Collection<Envelope> messages)
+	{
+		for (Envelope message : messages)
+		{
+			this.inbound(message);
+		}
+	}
+
+	public void outbound(Envelope message);
 
     public MessagingStatus getStatus();
 }
@@ -6,6 +6,7 @@
 
 package lexa.core.server.messaging;
 
+import lexa.core.logging.Logger;
 import lexa.core.process.ProcessException;
 
 /**
@@ -20,4 +21,57 @@ public interface MessagingContainer
     public void start(MessagingCaller caller)
 			throws ProcessException;
 
+	/**
+	 * Stop the container once the messages already queued have been passed on.
+	 * <p>A message that arrives after the container has stopped is passed on by
+	 * the thread that sends it, so a late reply is never lost.  Only one thread
+	 * passes messages on at a time, so they keep their order.
+	 */
+	public void close();
+
+	/**
+	 * Pass the container's replies to a new caller.
+	 * <p>Used when a rebuilt service takes over a running process, so that
+	 * replies go through the new service rather than the retired one.
+	 *
+	 * @param   caller
+	 *          the new caller for the container.
+	 */
+	public void handOver(MessagingCaller caller);
+
+	/**
+	 * Run a task for the handler on the container's thread.
+	 * <p>Used by the handler for work raised on other threads, such as timers
+	 * and replies from remote brokers, so that the work is done in turn with
+	 * its messages.  An inline container runs the task on the calling thread.
+	 *
+	 * @param   task
+	 *          the task to run.
+	 */
+	public void execute(Runnable task);
+
+	/**
+	 * Pass a message to a handler unless it has expired.
+	 * <p>An expired message is counted as received as well as expired, so the
+	 * handler's pending count balances.
+	 *
+	 * @param   handler
+	 *          the handler for the message.
+	 * @param   message
+	 *          the inbound message.
+	 * @param   logger
+	 *          the container's logger.
+	 */
+	public static void dispatch(MessagingHandler handler, Envelope message, Logger logger)
+	{
+		if (message.isExpired())
+		{
+			logger.debug("expired " + message.getConnectionId() + "/" + message.getSourceId());
+			handler.getStatus().addReceived();
+			handler.getStatus().addExpired();
+			return;
+		}
+		handler.inbound(message);
+	}
+
 }
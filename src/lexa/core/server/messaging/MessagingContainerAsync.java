@@ -6,10 +6,11 @@
 
 package lexa.core.server.messaging;
 
-import lexa.core.data.DataSet;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lexa.core.logging.Logger;
-import lexa.core.queue.FIFOQueue;
-import lexa.core.queue.Queue;
 import lexa.core.process.ProcessException;
 
 /**
@@ -23,18 +24,26 @@ public class MessagingContainerAsync
 
 	private final Logger logger;
 	private final MessagingHandler handler;
-	private final Queue inbound;
-	private final Queue outbound;
-	private MessagingCaller caller;
+	private final Queue<Envelope> inbound;
+	private final Queue<Envelope> outbound;
+	/** tasks for the handler, run on the container thread */
+	private final Queue<Runnable> tasks;
+	private volatile MessagingCaller caller;
 	private boolean notified;
-	private boolean running;
+	private volatile boolean running;
+	/** set once the container thread has stopped; later messages are passed on by their sender */
+	private volatile boolean stopped;
+	/** set while a thread is passing on the messages left after the container stopped */
+	private final AtomicBoolean draining;
 
 	public MessagingContainerAsync(MessagingHandler handler)
 	{
 		this.logger = new Logger(MessagingContainerAsync.class.getSimpleName(), handler.getName());
 		this.handler = handler;
-		this.inbound = new FIFOQueue();
-		this.outbound = new FIFOQueue();
+		this.inbound = new ConcurrentLinkedQueue<>();
+		this.outbound = new ConcurrentLinkedQueue<>();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.draining = new AtomicBoolean(false);
 	}
 
     public MessagingHandler getHandler()
@@ -43,17 +52,59 @@ public class MessagingContainerAsync
     }
 
 	@Override
-	public void inbound(DataSet message)
+	public void inbound(Envelope message)
 	{
 		this.inbound.add(message);
 		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
+	}
+
+	@Override
+	public void inboundAll(Collection<Envelope> messages)
+	{
+		this.inbound.addAll(messages);
+		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
 	}
 
 	@Override
-	public void outbound(DataSet message)
+	public void outbound(Envelope message)
 	{
 		this.outbound.add(message);
 		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		this.setRunning(false);
+	}
+
+	@Override
+	public void handOver(MessagingCaller caller)
+	{
+		this.caller = caller;
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+		this.tasks.add(task);
+		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
 	}
 
 	@Override
@@ -64,6 +115,8 @@ public class MessagingContainerAsync
 		{
 			this.process();
 		}
+		this.stopped = true;
+		this.drain();
 		this.logger.info("thread stopped");
 	}
 
@@ -92,7 +145,7 @@ public class MessagingContainerAsync
 	private synchronized void process()
 	{
 		// nothing
-		if (this.inbound.isEmpty() && this.outbound.isEmpty() )
+		if (this.inbound.isEmpty() && this.outbound.isEmpty() && this.tasks.isEmpty())
 		{
 			try
 			{
@@ -110,12 +163,52 @@ public class MessagingContainerAsync
 		// one in
 		if (!this.inbound.isEmpty())
 		{
-			this.handler.inbound(this.inbound.get());
+			MessagingContainer.dispatch(this.handler, this.inbound.poll(), this.logger);
 		}
 		// one out
 		if (!this.outbound.isEmpty())
 		{
-			this.caller.outbound(this.outbound.get());
+			this.caller.outbound(this.outbound.poll());
+		}
+		// one task
+		if (!this.tasks.isEmpty())
+		{
+			this.tasks.poll().run();
+		}
+	}
+
+	/**
+	 * Pass on every message queued; used once the container thread has stopped.
+	 * <p>Only one thread drains at a time, so messages are still passed on in
+	 * order.  The queues are checked again once the flag is released so a
+	 * message added meanwhile is never left behind.
+	 */
+	private void drain()
+	{
+		while (!(this.inbound.isEmpty() && this.outbound.isEmpty() && this.tasks.isEmpty()) &&
+				this.draining.compareAndSet(false, true))
+		{
+			try
+			{
+				Envelope message;
+				while ((message = this.inbound.poll()) != null)
+				{
+					MessagingContainer.dispatch(this.handler, message, this.logger);
+				}
+				while ((message = this.outbound.poll()) != null)
+				{
+					this.caller.outbound(message);
+				}
+				Runnable task;
+				while ((task = this.tasks.poll()) != null)
+				{
+					task.run();
+				}
+			}
+			finally
+			{
+				this.draining.set(false);
+			}
 		}
 	}
 
@@ -0,0 +1,255 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * MessagingContainerBatch.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.messaging;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import lexa.core.logging.Logger;
+import lexa.core.process.ProcessException;
+
+/**
+ * A container that runs its handler on a dedicated thread fed by lock free queues.
+ * <p>Any number of threads may add messages, only the container thread takes
+ * them off.  Producers never take a lock; the container thread parks when both
+ * queues are empty and is only unparked by a producer if it is waiting.
+ * <p>Each wake up moves up to {@code batchSize} inbound and {@code batchSize}
+ * outbound messages, and runs up to {@code batchSize} tasks for the handler,
+ * before checking the queues again.
+ * <p>The thread is supplied by a {@link ThreadFactory}, so the container can be
+ * run on either a platform or a virtual thread; parking does not pin a virtual
+ * thread to its carrier.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class MessagingContainerBatch
+		implements MessagingContainer,
+				Runnable
+{
+	private final Logger logger;
+	private final MessagingHandler handler;
+	private final Queue<Envelope> inbound;
+	private final Queue<Envelope> outbound;
+	/** tasks for the handler, run on the container thread */
+	private final Queue<Runnable> tasks;
+	private final int batchSize;
+	/** set while the container thread is, or is about to be, parked */
+	private final AtomicBoolean waiting;
+	/** the thread running the container */
+	private final Thread thread;
+	private volatile MessagingCaller caller;
+	private volatile boolean running;
+	/** set once the container thread has stopped; later messages are passed on by their sender */
+	private volatile boolean stopped;
+	/** set while a thread is passing on the messages left after the container stopped */
+	private final AtomicBoolean draining;
+
+	public MessagingContainerBatch(MessagingHandler handler, int batchSize, ThreadFactory threadFactory)
+	{
+		this.logger = new Logger(MessagingContainerBatch.class.getSimpleName(), handler.getName());
+		this.handler = handler;
+		this.inbound = new ConcurrentLinkedQueue<>();
+		this.outbound = new ConcurrentLinkedQueue<>();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.batchSize = batchSize;
+		this.waiting = new AtomicBoolean(false);
+		this.draining = new AtomicBoolean(false);
+		this.thread = threadFactory.newThread(this);
+		this.thread.setName(handler.getName());
+	}
+
+	@Override
+	public MessagingHandler getHandler()
+	{
+		return this.handler;
+	}
+
+	@Override
+	public void inbound(Envelope message)
+	{
+		this.inbound.offer(message);
+		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
+	}
+
+	@Override
+	public void inboundAll(Collection<Envelope> messages)
+	{
+		this.inbound.addAll(messages);
+		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
+	}
+
+	@Override
+	public void outbound(Envelope message)
+	{
+		this.outbound.offer(message);
+		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		this.logger.info("thread started");
+		while (this.running)
+		{
+			if (this.process() == 0)
+			{
+				this.idle();
+			}
+		}
+		this.stopped = true;
+		this.drain();
+		this.logger.info("thread stopped");
+	}
+
+	@Override
+	public void start(MessagingCaller caller)
+			throws ProcessException
+	{
+		this.caller = caller;
+		this.handler.start(caller, this);
+		this.running = true;
+		this.thread.start();
+	}
+
+	@Override
+	public void close()
+	{
+		this.running = false;
+		LockSupport.unpark(this.thread);
+	}
+
+	@Override
+	public void handOver(MessagingCaller caller)
+	{
+		this.caller = caller;
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+		this.tasks.offer(task);
+		this.messageNotify();
+		if (this.stopped)
+		{
+			this.drain();
+		}
+	}
+
+	/**
+	 * Wake the container thread if it is parked.
+	 */
+	private void messageNotify()
+	{
+		if (this.waiting.get() && this.waiting.compareAndSet(true, false))
+		{
+			LockSupport.unpark(this.thread);
+		}
+	}
+
+	/**
+	 * Park the container thread until a message arrives.
+	 * <p>The queues are checked again after flagging the wait so a message
+	 * added in between is never missed.
+	 */
+	private void idle()
+	{
+		this.waiting.set(true);
+		if (this.inbound.isEmpty() && this.outbound.isEmpty() && this.tasks.isEmpty() && this.running)
+		{
+			LockSupport.park(this);
+		}
+		this.waiting.set(false);
+	}
+
+	/**
+	 * Move a batch of messages in each direction.
+	 *
+	 * @return  the number of messages moved.
+	 */
+	private int process()
+	{
+		int moved = 0;
+		Envelope message;
+		for (int i = 0; i < this.batchSize && (message = this.inbound.poll()) != null; i++)
+		{
+			MessagingContainer.dispatch(this.handler, message, this.logger);
+			moved++;
+		}
+		for (int o = 0; o < this.batchSize && (message = this.outbound.poll()) != null; o++)
+		{
+			this.caller.outbound(message);
+			moved++;
+		}
+		Runnable task;
+		for (int t = 0; t < this.batchSize && (task = this.tasks.poll()) != null; t++)
+		{
+			task.run();
+			moved++;
+		}
+		return moved;
+	}
+
+	/**
+	 * Pass on every message queued; used once the container thread has stopped.
+	 * <p>Only one thread drains at a time, so messages are still passed on in
+	 * order.  The queues are checked again once the flag is released so a
+	 * message added meanwhile is never left behind.
+	 */
+	private void drain()
+	{
+		while (!(this.inbound.isEmpty() && this.outbound.isEmpty() && this.tasks.isEmpty()) &&
+				this.draining.compareAndSet(false, true))
+		{
+			try
+			{
+				Envelope message;
+				while ((message = this.inbound.poll()) != null)
+				{
+					MessagingContainer.dispatch(this.handler, message, this.logger);
+				}
+				while ((message = this.outbound.poll()) != null)
+				{
+					this.caller.outbound(message);
+				}
+				Runnable task;
+				while ((task = this.tasks.poll()) != null)
+				{
+					task.run();
+				}
+			}
+			finally
+			{
+				this.draining.set(false);
+			}
+		}
+	}
+
+	@Override
+	public MessagingStatus getStatus()
+	{
+		return this.handler.getStatus();
+	}
+}
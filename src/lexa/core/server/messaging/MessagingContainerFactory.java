@@ -0,0 +1,411 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * MessagingContainerFactory.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.messaging;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import lexa.core.data.config.ConfigDataSet;
+import lexa.core.data.exception.DataException;
+import lexa.core.logging.Logger;
+import lexa.core.server.context.Config;
+import lexa.core.server.context.Value;
+
+/**
+ * Factory for the {@link MessagingContainer} used to run each handler.
+ * <p>The thread model is read from the broker configuration:
+ * <pre>
+ * [type &lt;threadModel&gt;]
+ * [batchSize &lt;batchSize&gt;]
+ * [poolSize &lt;poolSize&gt;]
+ * [poolList {
+ *   &lt;poolName&gt; &lt;poolSize&gt;
+ *   [...]
+ * }]
+ * </pre>
+ * <p>Where:
+ * <dl>
+ * <dt>&lt;threadModel&gt;</dt><dd>one of {@code inline}, {@code async}, {@code batch},
+ *      {@code pooled} or {@code virtual}; [optional; default is {@code async}]</dd>
+ * <dt>&lt;batchSize&gt;</dt><dd>the maximum number of inbound and of outbound
+ *      messages moved by a {@code batch}, {@code pooled} or {@code virtual} container per wake up;
+ *      [optional; default is 64]</dd>
+ * <dt>&lt;poolSize&gt;</dt><dd>the number of threads in the {@code default} pool shared by
+ *      {@code pooled} containers; [optional; default is the number of available processors]</dd>
+ * <dt>&lt;poolName&gt;</dt><dd>the name of an extra pool, used to keep a group of
+ *      services or processes apart from the rest of the broker. [optional]</dd>
+ * </dl>
+ * <p>Each service and process block may override the thread model for itself and
+ * everything below it:
+ * <pre>
+ * [type &lt;threadModel&gt;]
+ * [batchSize &lt;batchSize&gt;]
+ * [pool &lt;poolName&gt;]
+ * </pre>
+ * <p>Giving a {@code pool} implies a {@code pooled} thread model.  Levels with
+ * different thread models hand messages on to each other through their containers.
+ * <p>A {@code virtual} container is a {@code batch} container run on a virtual
+ * thread.  Virtual threads need a Java 21 runtime; on an older runtime a
+ * platform thread is used instead.  The process agents are locked with a
+ * {@link java.util.concurrent.locks.ReentrantLock}, so a process that blocks
+ * releases the carrier thread.  Before Java 24 a virtual thread that blocks
+ * while holding a monitor still pins its carrier; a {@link
+ * lexa.core.server.connection.Connection} holds its monitor while it submits a
+ * message, so a remote connection that blocks on a slow host pins the carrier
+ * until the write completes.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class MessagingContainerFactory
+{
+	/** the thread model for the containers */
+	private final String type;
+	/** messages moved in each direction per wake up */
+	private final int batchSize;
+	/** the pool used by pooled containers */
+	private final String poolName;
+	/** thread counts for each pool, shared by all the factories for a broker */
+	private final Map<String, Integer> poolSizes;
+	/** the executors for each pool, created on first use */
+	private final Map<String, ExecutorService> pools;
+	/** name of the broker, used for the thread names */
+	private final String name;
+	/** logger for events */
+	private final Logger logger;
+	/** factory for the container threads */
+	private final ThreadFactory threadFactory;
+	/** threads for background work, shared by all the factories for a broker */
+	private final ScheduledExecutorService background;
+
+	/**
+	 * Create a factory from the broker configuration.
+	 *
+	 * @param   config
+	 *          the configuration for the message broker.
+	 * @throws  DataException
+	 *          when the thread model is not recognised.
+	 */
+	public MessagingContainerFactory(ConfigDataSet config)
+			throws DataException
+	{
+		this.name = config.getString(Config.NAME);
+		this.logger = new Logger(MessagingContainerFactory.class.getSimpleName(), this.name);
+		this.type = MessagingContainerFactory.validateType(
+				config.get(Config.TYPE, Value.TYPE_ASYNC).getString(), this.name);
+		this.batchSize = MessagingContainerFactory.validateBatchSize(
+				config.get(Config.BATCH_SIZE, Value.DEFAULT_BATCH_SIZE).getInteger(), this.name);
+		this.poolName = Value.DEFAULT_POOL;
+		this.poolSizes = new HashMap<>();
+		this.pools = new HashMap<>();
+		this.poolSizes.put(Value.DEFAULT_POOL,
+				config.get(Config.POOL_SIZE,
+						Runtime.getRuntime().availableProcessors()).getInteger());
+		if (config.contains(Config.POOL_LIST))
+		{
+			ConfigDataSet poolList = config.getDataSet(Config.POOL_LIST);
+			for (String pool : poolList.keys())
+			{
+				this.poolSizes.put(pool, poolList.getInteger(pool));
+			}
+			poolList.close();
+		}
+		for (Map.Entry<String, Integer> pool : this.poolSizes.entrySet())
+		{
+			if (pool.getValue() == null || pool.getValue() < 1)
+			{
+				throw new DataException("Config pool size must be at least 1: " + pool.getKey() + "@" + this.name);
+			}
+		}
+		this.threadFactory = this.threadFactory(this.type);
+		final String prefix = this.name + "-background-";
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.background = Executors.newScheduledThreadPool(
+				Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+				(Runnable r) ->
+				{
+					Thread thread = new Thread(r, prefix + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Create a factory for a lower level that overrides the thread model.
+	 *
+	 * @param   parent
+	 *          the factory for the level above.
+	 * @param   type
+	 *          the thread model for the containers.
+	 * @param   batchSize
+	 *          messages moved in each direction per wake up.
+	 * @param   poolName
+	 *          the pool used by pooled containers.
+	 */
+	private MessagingContainerFactory(MessagingContainerFactory parent,
+			String type, int batchSize, String poolName)
+	{
+		this.name = parent.name;
+		this.logger = parent.logger;
+		this.type = type;
+		this.batchSize = batchSize;
+		this.poolName = poolName;
+		this.poolSizes = parent.poolSizes;
+		this.pools = parent.pools;
+		this.threadFactory = type.equals(parent.type) ?
+				parent.threadFactory :
+				this.threadFactory(type);
+		this.background = parent.background;
+	}
+
+	/**
+	 * Get the factory for a service or process block.
+	 * <p>The block may override the {@code type}, {@code batchSize} and {@code pool}
+	 * inherited from the level above.
+	 *
+	 * @param   config
+	 *          the configuration for the service or process.
+	 * @return  a factory for the block and the levels below it.
+	 * @throws  DataException
+	 *          when the thread model or pool is not recognised.
+	 */
+	public MessagingContainerFactory forConfig(ConfigDataSet config)
+			throws DataException
+	{
+		if (!config.contains(Config.TYPE) &&
+				!config.contains(Config.BATCH_SIZE) &&
+				!config.contains(Config.POOL))
+		{
+			return this;
+		}
+		String blockName = config.getString(Config.NAME) + "@" + this.name;
+		String pool = config.get(Config.POOL, this.poolName).getString();
+		String blockType = config.contains(Config.POOL) ?
+				config.get(Config.TYPE, Value.TYPE_POOLED).getString() :
+				config.get(Config.TYPE, this.type).getString();
+		MessagingContainerFactory.validateType(blockType, blockName);
+		if (!this.poolSizes.containsKey(pool))
+		{
+			throw new DataException("Config missing pool: " + pool + "@" + blockName);
+		}
+		return new MessagingContainerFactory(this,
+				blockType,
+				MessagingContainerFactory.validateBatchSize(
+						config.get(Config.BATCH_SIZE, this.batchSize).getInteger(), blockName),
+				pool);
+	}
+
+	/**
+	 * Create a container for a handler.
+	 *
+	 * @param   handler
+	 *          the handler to run within the container.
+	 * @return  a new container for the handler.
+	 */
+	public MessagingContainer container(MessagingHandler handler)
+	{
+		switch (this.type)
+		{
+			case Value.TYPE_INLINE :
+			{
+				return new MessagingContainerInline(handler);
+			}
+			case Value.TYPE_BATCH :
+			case Value.TYPE_VIRTUAL :
+			{
+				return new MessagingContainerBatch(handler, this.batchSize, this.threadFactory);
+			}
+			case Value.TYPE_POOLED :
+			{
+				return new MessagingContainerPooled(handler, this.getPool(), this.batchSize);
+			}
+			default :
+			{
+				return new MessagingContainerAsync(handler);
+			}
+		}
+	}
+
+	/**
+	 * Get the executor for this factory's pool.
+	 * <p>Used to run work for a handler alongside its container, for example
+	 * the steps of concurrent processes.
+	 *
+	 * @return  the shared executor for the pool.
+	 */
+	public Executor executor()
+	{
+		return this.getPool();
+	}
+
+	/**
+	 * Get the scheduler for background work.
+	 * <p>Used by handlers for work that must not hold up their messages, such
+	 * as creating and discarding processes, and for timers.  The threads are
+	 * shared by the whole broker and stopped when the factory is closed.
+	 *
+	 * @return  the shared scheduler.
+	 */
+	public ScheduledExecutorService background()
+	{
+		return this.background;
+	}
+
+	/**
+	 * Check a thread model is recognised.
+	 *
+	 * @param   type
+	 *          the thread model.
+	 * @param   name
+	 *          the name of the block being configured.
+	 * @return  the thread model.
+	 * @throws  DataException
+	 *          when the thread model is not recognised.
+	 */
+	private static String validateType(String type, String name)
+			throws DataException
+	{
+		switch (type)
+		{
+			case Value.TYPE_INLINE :
+			case Value.TYPE_ASYNC :
+			case Value.TYPE_BATCH :
+			case Value.TYPE_POOLED :
+			case Value.TYPE_VIRTUAL :
+			{
+				return type;
+			}
+			default :
+			{
+				throw new DataException("Config type is not \"inline\", \"async\", \"batch\", \"pooled\" or \"virtual\": " +
+						type + "@" + name);
+			}
+		}
+	}
+
+	/**
+	 * Check a batch size is valid.
+	 *
+	 * @param   batchSize
+	 *          messages moved in each direction per wake up.
+	 * @param   name
+	 *          the name of the block being configured.
+	 * @return  the batch size.
+	 * @throws  DataException
+	 *          when the batch size is less than 1.
+	 */
+	private static int validateBatchSize(int batchSize, String name)
+			throws DataException
+	{
+		if (batchSize < 1)
+		{
+			throw new DataException("Config batchSize must be at least 1: " + name);
+		}
+		return batchSize;
+	}
+
+	/**
+	 * Get the factory for the threads of {@code batch} and {@code virtual} containers.
+	 *
+	 * @param   type
+	 *          the thread model.
+	 * @return  a factory for the container threads.
+	 */
+	private ThreadFactory threadFactory(String type)
+	{
+		if (!Value.TYPE_VIRTUAL.equals(type))
+		{
+			return Thread::new;
+		}
+		ThreadFactory virtualThreads = MessagingContainerFactory.virtualThreadFactory(this.name);
+		if (virtualThreads == null)
+		{
+			this.logger.error("Virtual threads are not supported by this runtime, using platform threads");
+			return Thread::new;
+		}
+		return virtualThreads;
+	}
+
+	/**
+	 * Get a factory for virtual threads.
+	 * <p>The builder is found by reflection so the code still builds and runs
+	 * against runtimes without virtual threads.
+	 *
+	 * @param   name
+	 *          the prefix for the thread names.
+	 * @return  a factory for virtual threads;
+	 *          or {@code null} if the runtime does not support them.
+	 */
+	private static ThreadFactory virtualThreadFactory(String name)
+	{
+		try
+		{
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, name + "-virtual-", 0L);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory)factory.invoke(builder);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Get the executor for this factory's pool, creating it if needed.
+	 *
+	 * @return  the shared executor.
+	 */
+	private ExecutorService getPool()
+	{
+		synchronized (this.pools)
+		{
+			ExecutorService pool = this.pools.get(this.poolName);
+			if (pool == null)
+			{
+				final String prefix = this.name + "-" + this.poolName + "-";
+				final AtomicInteger threadCount = new AtomicInteger();
+				ThreadFactory poolThreads = (Runnable r) ->
+				{
+					Thread thread = new Thread(r, prefix + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				};
+				pool = Executors.newFixedThreadPool(this.poolSizes.get(this.poolName), poolThreads);
+				this.pools.put(this.poolName, pool);
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Release any threads held by the factory.
+	 */
+	public void close()
+	{
+		synchronized (this.pools)
+		{
+			for (ExecutorService pool : this.pools.values())
+			{
+				pool.shutdown();
+			}
+			this.pools.clear();
+		}
+		this.background.shutdown();
+	}
+}
@@ -6,41 +6,62 @@
 
 package lexa.core.server.messaging;
 
-import lexa.core.data.DataSet;
-import lexa.core.queue.FIFOQueue;
-import lexa.core.queue.Queue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lexa.core.logging.Logger;
 import lexa.core.process.ProcessException;
 
 /**
+ * A container that runs its handler on the caller's thread.
+ * <p>Replies raised while a message is being sent in are held until it returns.
+ * The container may sit between levels with other thread models, so replies can
+ * also arrive on other threads; these are passed straight on unless a message
+ * is being sent in, in which case that thread sends them when it returns.
+ * <p>Only one thread passes replies on at a time, so they leave in the order
+ * they were raised.
  *
  * @author william
  */
 public class MessagingContainerInline
 		implements MessagingContainer
 {
+	private final Logger logger;
 	private final MessagingHandler handler;
 	// you'll see, you'll see
-	private final Queue outbound;
-	private MessagingCaller caller;
-	private boolean sending;
+	private final Queue<Envelope> outbound;
+	private volatile MessagingCaller caller;
+	/** the number of threads currently sending a message in */
+	private final AtomicInteger sending;
+	/** set while a thread is passing replies on */
+	private final AtomicBoolean flushing;
 	public MessagingContainerInline(MessagingHandler handler)
 	{
+		this.logger = new Logger(MessagingContainerInline.class.getSimpleName(), handler.getName());
 		this.handler = handler;
-		this.outbound = new FIFOQueue();
-		this.sending = false;
+		this.outbound = new ConcurrentLinkedQueue<>();
+		this.sending = new AtomicInteger();
+		this.flushing = new AtomicBoolean(false);
 	}
 
 	@Override
-	public void inbound(DataSet message)
+	public void inbound(Envelope message)
 	{
-		this.sending = true;
-		this.handler.inbound(message);
-		this.sending = false;
+		this.sending.incrementAndGet();
+		try
+		{
+			MessagingContainer.dispatch(this.handler, message, this.logger);
+		}
+		finally
+		{
+			this.sending.decrementAndGet();
+		}
 		flushOutbound();
 	}
 
 	@Override
-	public void outbound(DataSet message)
+	public void outbound(Envelope message)
 	{
 		this.outbound.add(message);
 		flushOutbound();
@@ -54,15 +75,53 @@ public class MessagingContainerInline
 		this.handler.start(caller, this);
 	}
 
-	private void flushOutbound()
+	@Override
+	public void close()
+	{
+		// messages are passed on by the threads that send them
+	}
+
+	@Override
+	public void handOver(MessagingCaller caller)
+	{
+		this.caller = caller;
+	}
+
+	@Override
+	public void execute(Runnable task)
 	{
-		if (this.sending)
+		this.sending.incrementAndGet();
+		try
+		{
+			task.run();
+		}
+		finally
 		{
-			return; // sending up so don't send down
+			this.sending.decrementAndGet();
 		}
-		while (!this.outbound.isEmpty())
+		flushOutbound();
+	}
+
+	private void flushOutbound()
+	{
+		// sending up so don't send down; checked again once the flag is
+		// released so a reply added by another thread is never left behind
+		while (this.sending.get() == 0 &&
+				!this.outbound.isEmpty() &&
+				this.flushing.compareAndSet(false, true))
 		{
-			this.caller.outbound(this.outbound.get());
+			try
+			{
+				Envelope message;
+				while ((message = this.outbound.poll()) != null)
+				{
+					this.caller.outbound(message);
+				}
+			}
+			finally
+			{
+				this.flushing.set(false);
+			}
 		}
 	}
 
@@ -0,0 +1,169 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * MessagingContainerPooled.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.messaging;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lexa.core.logging.Logger;
+import lexa.core.process.ProcessException;
+
+/**
+ * A container that runs its handler as an actor on a shared executor.
+ * <p>The container owns no thread.  When a message arrives and the container
+ * is not already scheduled it submits itself to the executor; the task drains
+ * up to {@code batchSize} messages in each direction and then either
+ * reschedules itself or goes idle.  Only one task per container is ever
+ * scheduled, so the handler sees its messages one at a time and in order.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class MessagingContainerPooled
+		implements MessagingContainer,
+				Runnable
+{
+	private final Logger logger;
+	private final MessagingHandler handler;
+	private final Executor executor;
+	private final Queue<Envelope> inbound;
+	private final Queue<Envelope> outbound;
+	/** tasks for the handler, run in turn with its messages */
+	private final Queue<Runnable> tasks;
+	private final int batchSize;
+	/** set while a task for this container is queued or running */
+	private final AtomicBoolean scheduled;
+	private volatile MessagingCaller caller;
+
+	public MessagingContainerPooled(MessagingHandler handler, Executor executor, int batchSize)
+	{
+		this.logger = new Logger(MessagingContainerPooled.class.getSimpleName(), handler.getName());
+		this.handler = handler;
+		this.executor = executor;
+		this.inbound = new ConcurrentLinkedQueue<>();
+		this.outbound = new ConcurrentLinkedQueue<>();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.batchSize = batchSize;
+		this.scheduled = new AtomicBoolean(false);
+	}
+
+	@Override
+	public MessagingHandler getHandler()
+	{
+		return this.handler;
+	}
+
+	@Override
+	public void inbound(Envelope message)
+	{
+		this.inbound.offer(message);
+		this.schedule();
+	}
+
+	@Override
+	public void inboundAll(Collection<Envelope> messages)
+	{
+		this.inbound.addAll(messages);
+		this.schedule();
+	}
+
+	@Override
+	public void outbound(Envelope message)
+	{
+		this.outbound.offer(message);
+		this.schedule();
+	}
+
+	@Override
+	public void start(MessagingCaller caller)
+			throws ProcessException
+	{
+		this.caller = caller;
+		this.handler.start(caller, this);
+		this.logger.info("container started");
+		// pick up anything sent while the handler was starting
+		this.schedule();
+	}
+
+	@Override
+	public void close()
+	{
+		// the threads belong to the shared pool, so there is nothing to stop
+	}
+
+	@Override
+	public void handOver(MessagingCaller caller)
+	{
+		this.caller = caller;
+	}
+
+	@Override
+	public void execute(Runnable task)
+	{
+		this.tasks.offer(task);
+		this.schedule();
+	}
+
+	/**
+	 * Submit the container to the executor if it has work and is not already scheduled.
+	 */
+	private void schedule()
+	{
+		if (this.caller != null &&
+				!(this.inbound.isEmpty() && this.outbound.isEmpty() && this.tasks.isEmpty()) &&
+				this.scheduled.compareAndSet(false, true))
+		{
+			this.executor.execute(this);
+		}
+	}
+
+	/**
+	 * Move a batch of messages in each direction and then reschedule or go idle.
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			Envelope message;
+			for (int i = 0; i < this.batchSize && (message = this.inbound.poll()) != null; i++)
+			{
+				MessagingContainer.dispatch(this.handler, message, this.logger);
+			}
+			for (int o = 0; o < this.batchSize && (message = this.outbound.poll()) != null; o++)
+			{
+				this.caller.outbound(message);
+			}
+			Runnable task;
+			for (int t = 0; t < this.batchSize && (task = this.tasks.poll()) != null; t++)
+			{
+				task.run();
+			}
+		}
+		catch (RuntimeException ex)
+		{
+			this.logger.error("message handling failed", ex);
+		}
+		finally
+		{
+			this.scheduled.set(false);
+			// a message may have arrived after the queues were drained
+			this.schedule();
+		}
+	}
+
+	@Override
+	public MessagingStatus getStatus()
+	{
+		return this.handler.getStatus();
+	}
+}
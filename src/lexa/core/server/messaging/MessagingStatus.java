@@ -28,8 +28,14 @@ public class MessagingStatus
         implements DataObject
 {
 
+    private int cacheEvictions;
+    private int cacheHits;
+    private int cacheMisses;
     private final List<MessagingStatus> children;
+    private int coalesced;
     private int error;
+    private int evicted;
+    private int expired;
     private final String name;
     private int received;
     private int replied;
@@ -41,6 +47,9 @@ public class MessagingStatus
         this.received=0;
         this.replied=0;
         this.error=0;
+        this.expired=0;
+        this.coalesced=0;
+        this.evicted=0;
     }
 
     @Override
@@ -76,8 +85,18 @@ public class MessagingStatus
                 .put("name", this.name)
                 .put("received", this.received)
                 .put("replied", this.replied)
-                .put("pending", this.received-this.replied-this.error)
-                .put("error", this.error);
+                .put("pending", this.received-this.replied-this.error-this.expired)
+                .put("error", this.error)
+                .put("expired", this.expired)
+                .put("coalesced", this.coalesced)
+                .put("evicted", this.evicted);
+        if (this.cacheHits + this.cacheMisses > 0)
+        {
+            data.put("cache", new ArrayDataSet()
+                    .put("hits", this.cacheHits)
+                    .put("misses", this.cacheMisses)
+                    .put("evictions", this.cacheEvictions));
+        }
         if (this.children.size()>0)
         {
             DataArray childrenData = new ArrayDataArray();
@@ -95,11 +114,46 @@ public class MessagingStatus
         this.children.add(child);
     }
 
+    public synchronized void removeChild(MessagingStatus child)
+    {
+        this.children.remove(child);
+    }
+
+    public synchronized void addCacheEviction()
+    {
+        this.cacheEvictions++;
+    }
+
+    public synchronized void addCacheHit()
+    {
+        this.cacheHits++;
+    }
+
+    public synchronized void addCacheMiss()
+    {
+        this.cacheMisses++;
+    }
+
+    public synchronized void addCoalesced()
+    {
+        this.coalesced++;
+    }
+
     public synchronized void addError()
     {
         this.error++;
     }
 
+    public synchronized void addEvicted()
+    {
+        this.evicted++;
+    }
+
+    public synchronized void addExpired()
+    {
+        this.expired++;
+    }
+
     public synchronized void addReceived()
     {
         this.received++;
@@ -115,6 +169,11 @@ public class MessagingStatus
         return this.error;
     }
 
+    public int getExpired()
+    {
+        return this.expired;
+    }
+
     public int getReceived()
     {
         return this.received;
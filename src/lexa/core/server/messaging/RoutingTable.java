@@ -0,0 +1,233 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * RoutingTable.java
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lexa.core.server.messaging;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * An immutable table resolving a service and message name to a route in one lookup.
+ * <p>The table is open addressed on the combined hash of the two names, so a
+ * lookup neither allocates nor walks a second map.  Names that are not in the
+ * table are passed to a resolver, for example to apply wildcards, and the result
+ * is added to a copy of the table that then replaces it; each unknown pair is
+ * only resolved once.  The number of resolved pairs kept is limited so that
+ * callers sending random names cannot grow the table without bound; once the
+ * limit is reached further unknown pairs are resolved on every lookup.
+ *
+ * @param   <T>
+ *          the type of route
+ * @author william
+ * @since 2026-10
+ */
+public class RoutingTable<T>
+{
+	/** resolves names that are not in the table */
+	private final BiFunction<String, String, T> resolver;
+	/** the maximum number of resolved pairs added to the table */
+	private final int cacheLimit;
+	/** the number of resolved pairs added so far */
+	private volatile int cached;
+	/** the current table, replaced whenever a resolved pair is added */
+	private volatile Table<T> table;
+
+	/**
+	 * Create a routing table.
+	 *
+	 * @param   routes
+	 *          the known routes, by service name and then message name.
+	 * @param   resolver
+	 *          resolves a pair of names that is not in the table;
+	 *          it may return {@code null} when there is no route.
+	 * @param   cacheLimit
+	 *          the maximum number of resolved pairs to add to the table.
+	 */
+	public RoutingTable(Map<String, Map<String, T>> routes,
+			BiFunction<String, String, T> resolver,
+			int cacheLimit)
+	{
+		this.resolver = resolver;
+		this.cacheLimit = cacheLimit;
+		this.cached = 0;
+		int size = 0;
+		for (Map<String, T> messages : routes.values())
+		{
+			size += messages.size();
+		}
+		Table<T> initial = new Table<>(size);
+		for (Map.Entry<String, Map<String, T>> service : routes.entrySet())
+		{
+			for (Map.Entry<String, T> message : service.getValue().entrySet())
+			{
+				initial.put(service.getKey(), message.getKey(), message.getValue());
+			}
+		}
+		this.table = initial;
+	}
+
+	/**
+	 * Get the route for a service and message.
+	 *
+	 * @param   service
+	 *          the service name.
+	 * @param   message
+	 *          the message name.
+	 * @return  the route; or {@code null} if there is no route.
+	 */
+	public T get(String service, String message)
+	{
+		Table<T> current = this.table;
+		int index = current.find(service, message);
+		if (index >= 0)
+		{
+			return current.route(index);
+		}
+		return this.resolve(service, message);
+	}
+
+	/**
+	 * Get the number of pairs in the table.
+	 *
+	 * @return  the number of known and resolved pairs.
+	 */
+	public int size()
+	{
+		return this.table.size;
+	}
+
+	/**
+	 * Resolve a pair of names and add it to the table.
+	 *
+	 * @param   service
+	 *          the service name.
+	 * @param   message
+	 *          the message name.
+	 * @return  the route; or {@code null} if there is no route.
+	 */
+	private T resolve(String service, String message)
+	{
+		if (this.cached >= this.cacheLimit)
+		{
+			return this.resolver.apply(service, message);
+		}
+		synchronized (this)
+		{
+			Table<T> current = this.table;
+			int index = current.find(service, message);
+			if (index >= 0)
+			{
+				return current.route(index); // resolved while waiting for the lock
+			}
+			T route = this.resolver.apply(service, message);
+			if (this.cached < this.cacheLimit)
+			{
+				Table<T> copy = new Table<>(current.size + 1);
+				current.copyTo(copy);
+				copy.put(service, message, route);
+				this.cached++;
+				this.table = copy;
+			}
+			return route;
+		}
+	}
+
+	/**
+	 * The array backing the table; never changed once published.
+	 * <p>Each slot holds the service name, message name and route side by side
+	 * so a probe only touches one part of memory.  An empty slot has no
+	 * service name; a {@code null} service name is stored as {@link #NO_NAME}.
+	 *
+	 * @param   <T>
+	 *          the type of route
+	 */
+	private static class Table<T>
+	{
+		private static final Object NO_NAME = new Object();
+		private final Object[] slots;
+		private final int mask;
+		private int size;
+
+		private Table(int entries)
+		{
+			int capacity = 8;
+			while (capacity < entries * 2)
+			{
+				capacity <<= 1;
+			}
+			this.slots = new Object[capacity * 3];
+			this.mask = capacity - 1;
+			this.size = 0;
+		}
+
+		private static int hash(String service, String message)
+		{
+			// names often differ by a trailing digit, so spread the bits well
+			// before probing; the mixing steps are the murmur3 finaliser
+			int h = (service == null ? 0 : service.hashCode()) * 0x9E3779B9 ^
+					(message == null ? 0 : message.hashCode());
+			h ^= h >>> 16;
+			h *= 0x85EBCA6B;
+			h ^= h >>> 13;
+			h *= 0xC2B2AE35;
+			return h ^ (h >>> 16);
+		}
+
+		private static boolean same(Object name, String key)
+		{
+			return key == null ? name == Table.NO_NAME : key.equals(name);
+		}
+
+		private int find(String service, String message)
+		{
+			for (int i = Table.hash(service, message) & this.mask;
+					this.slots[i * 3] != null;
+					i = (i + 1) & this.mask)
+			{
+				int slot = i * 3;
+				if (Table.same(this.slots[slot], service) &&
+						(message == null ? this.slots[slot + 1] == null : message.equals(this.slots[slot + 1])))
+				{
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		private T route(int slot)
+		{
+			return (T)this.slots[slot + 2];
+		}
+
+		private void put(Object service, Object message, Object route)
+		{
+			int i = Table.hash(service == Table.NO_NAME ? null : (String)service, (String)message) & this.mask;
+			while (this.slots[i * 3] != null)
+			{
+				i = (i + 1) & this.mask;
+			}
+			int slot = i * 3;
+			this.slots[slot] = service == null ? Table.NO_NAME : service;
+			this.slots[slot + 1] = message;
+			this.slots[slot + 2] = route;
+			this.size++;
+		}
+
+		private void copyTo(Table<T> copy)
+		{
+			for (int slot = 0; slot < this.slots.length; slot += 3)
+			{
+				if (this.slots[slot] != null)
+				{
+					copy.put(this.slots[slot], this.slots[slot + 1], this.slots[slot + 2]);
+				}
+			}
+		}
+	}
+}
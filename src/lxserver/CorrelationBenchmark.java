@@ -0,0 +1,116 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * CorrelationBenchmark.java (lxServer)
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lxserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import lexa.core.server.messaging.IntHashMap;
+
+/**
+ * Measures the cost of tracking messages in flight by id.
+ * <p>Compares a boxed {@link HashMap}, as the connections used to use, against
+ * an {@link IntHashMap}.  Each map is filled with {@link #OUTSTANDING} messages
+ * and then each operation completes the oldest message, with a lookup and a
+ * remove, and submits a new one, as a connection does under steady load.  The
+ * time and the bytes allocated by the benchmark thread are reported per operation.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class CorrelationBenchmark
+{
+	private static final int OUTSTANDING = 1_000_000;
+	private static final int OPERATIONS = 4_000_000;
+	private static final int ROUNDS = 10;
+
+	/**
+	 * Entry point to run the benchmark.
+	 *
+	 * @param args not used
+	 */
+	public static void main(String ... args)
+	{
+		Object message = new Object();
+		for (int round = 0; round < CorrelationBenchmark.ROUNDS; round++)
+		{
+			long allocated = CorrelationBenchmark.allocated();
+			long start = System.nanoTime();
+			Map<Integer, Object> boxed = new HashMap<>();
+			int next = 0;
+			for (; next < CorrelationBenchmark.OUTSTANDING; next++)
+			{
+				boxed.put(next, message);
+			}
+			long found = 0;
+			for (int op = 0; op < CorrelationBenchmark.OPERATIONS; op++, next++)
+			{
+				int oldest = next - CorrelationBenchmark.OUTSTANDING;
+				if (boxed.get(oldest) != null)
+				{
+					found++;
+				}
+				boxed.remove(oldest);
+				boxed.put(next, message);
+			}
+			long mapTime = System.nanoTime() - start;
+			long mapBytes = CorrelationBenchmark.allocated() - allocated;
+			boxed = null;
+
+			allocated = CorrelationBenchmark.allocated();
+			start = System.nanoTime();
+			IntHashMap<Object> primitive = new IntHashMap<>();
+			next = 0;
+			for (; next < CorrelationBenchmark.OUTSTANDING; next++)
+			{
+				primitive.put(next, message);
+			}
+			for (int op = 0; op < CorrelationBenchmark.OPERATIONS; op++, next++)
+			{
+				int oldest = next - CorrelationBenchmark.OUTSTANDING;
+				if (primitive.get(oldest) != null)
+				{
+					found--;
+				}
+				primitive.remove(oldest);
+				primitive.put(next, message);
+			}
+			long intTime = System.nanoTime() - start;
+			long intBytes = CorrelationBenchmark.allocated() - allocated;
+			primitive = null;
+
+			int operations = CorrelationBenchmark.OUTSTANDING + CorrelationBenchmark.OPERATIONS;
+			System.out.println(String.format(
+					"round %2d: HashMap %6.1f ns/op %6.1f bytes/op, IntHashMap %6.1f ns/op %6.1f bytes/op (%d)",
+					round,
+					(double)mapTime / operations,
+					(double)mapBytes / operations,
+					(double)intTime / operations,
+					(double)intBytes / operations,
+					found));
+		}
+	}
+
+	/**
+	 * Get the bytes allocated so far by this thread.
+	 *
+	 * @return  the bytes allocated; or {@code 0} if the runtime cannot tell.
+	 */
+	private static long allocated()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean)threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
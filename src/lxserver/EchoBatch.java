@@ -0,0 +1,49 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * EchoBatch.java (lxServer)
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lxserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataSet;
+import lexa.core.process.Echo;
+import lexa.core.server.BatchProcess;
+
+/**
+ * Test process that echoes a batch of requests.
+ * <p>Configured as:
+ * <pre>
+ * &lt;process&gt; {
+ *   name - &lt;process name&gt;
+ *   class - lxserver.EchoBatch
+ *   batchRequests % &lt;requests per batch&gt;
+ * }
+ * </pre>
+ * <p>Each reply is a copy of its request, as for {@link Echo}; requests that are
+ * not batched, such as system requests, are handled by the echo itself.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class EchoBatch
+		extends Echo
+		implements BatchProcess
+{
+	@Override
+	public List<DataSet> handleBatch(List<DataSet> requests)
+	{
+		List<DataSet> replies = new ArrayList<>(requests.size());
+		for (DataSet request : requests)
+		{
+			replies.add(new ArrayDataSet(request));
+		}
+		return replies;
+	}
+}
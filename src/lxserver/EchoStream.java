@@ -0,0 +1,67 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * EchoStream.java (lxServer)
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lxserver;
+
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataSet;
+import lexa.core.process.Echo;
+import lexa.core.process.ProcessException;
+import lexa.core.server.context.Context;
+
+/**
+ * Test process that echoes a request in several parts.
+ * <p>Configured as:
+ * <pre>
+ * &lt;process&gt; {
+ *   name - &lt;process name&gt;
+ *   class - lxserver.EchoStream
+ * }
+ * </pre>
+ * <p>A request with {@code parts % <n>} is answered with {@code n - 1} partial
+ * replies, each a copy of the request with its {@code part} number, and then
+ * the closing reply from {@link Echo}.  Other requests are echoed as usual.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class EchoStream
+		extends Echo
+{
+	/** the message being echoed */
+	private DataSet message;
+	/** the partial replies still to send */
+	private int partial;
+
+	@Override
+	public void handleRequest(DataSet request)
+			throws ProcessException
+	{
+		super.handleRequest(request);
+		this.message = request;
+		DataSet body = request.getDataSet(Context.REQUEST);
+		Integer parts = body == null ? null : body.getInteger("parts");
+		this.partial = parts == null ? 0 : parts - 1;
+	}
+
+	@Override
+	public DataSet getReply()
+			throws ProcessException
+	{
+		if (this.partial <= 0)
+		{
+			return super.getReply();
+		}
+		int part = this.message.getDataSet(Context.REQUEST).getInteger("parts") - this.partial--;
+		return new ArrayDataSet(this.message)
+				.put(Context.REPLY, new ArrayDataSet(this.message.getDataSet(Context.REQUEST))
+						.put("part", part))
+				.put(Context.CLOSE, false);
+	}
+}
@@ -0,0 +1,117 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * RoutingBenchmark.java (lxServer)
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lxserver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import lexa.core.server.context.Value;
+import lexa.core.server.messaging.RoutingTable;
+
+/**
+ * Measures the per message cost of routing a service and message name.
+ * <p>Compares the lookup the broker used to make, a map of services and then a
+ * map of processes with a wildcard fallback at each level, against a
+ * {@link RoutingTable}.  Half the lookups use names that need the wildcards.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class RoutingBenchmark
+{
+	private static final int SERVICES = 40;
+	private static final int PROCESSES = 300;
+	private static final int LOOKUPS = 1 << 16;
+	private static final int ROUNDS = 20;
+	private static final int UNKNOWN_NAMES = 10;
+
+	/**
+	 * Entry point to run the benchmark.
+	 *
+	 * @param args not used
+	 */
+	public static void main(String ... args)
+	{
+		Map<String, Map<String, String>> services = new HashMap<>();
+		for (int s = 0; s < RoutingBenchmark.SERVICES; s++)
+		{
+			Map<String, String> processes = new HashMap<>();
+			for (int p = 0; p < RoutingBenchmark.PROCESSES; p++)
+			{
+				processes.put("process" + p, "service" + s + ".process" + p);
+			}
+			services.put("service" + s, processes);
+		}
+		String wildcardService = "service0";
+		String wildcardProcess = "process0";
+
+		String[] serviceNames = new String[RoutingBenchmark.LOOKUPS];
+		String[] messageNames = new String[RoutingBenchmark.LOOKUPS];
+		Random random = new Random(1);
+		for (int l = 0; l < RoutingBenchmark.LOOKUPS; l++)
+		{
+			boolean unknown = (l & 1) == 1;
+			serviceNames[l] = unknown && random.nextBoolean() ?
+					"unknown" + random.nextInt(RoutingBenchmark.UNKNOWN_NAMES) :
+					"service" + random.nextInt(RoutingBenchmark.SERVICES);
+			messageNames[l] = unknown ?
+					"other" + random.nextInt(RoutingBenchmark.UNKNOWN_NAMES) :
+					"process" + random.nextInt(RoutingBenchmark.PROCESSES);
+		}
+
+		RoutingTable<String> table = new RoutingTable<>(services,
+				(service, message) ->
+				{
+					Map<String, String> processes = services.get(service);
+					if (processes == null)
+					{
+						processes = services.get(wildcardService);
+					}
+					String route = processes.get(message);
+					return route != null ? route : processes.get(wildcardProcess);
+				},
+				Value.ROUTE_CACHE_SIZE);
+
+		for (int round = 0; round < RoutingBenchmark.ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			int found = 0;
+			for (int l = 0; l < RoutingBenchmark.LOOKUPS; l++)
+			{
+				Map<String, String> processes = services.get(serviceNames[l]);
+				if (processes == null)
+				{
+					processes = services.get(wildcardService);
+				}
+				String route = processes.get(messageNames[l]);
+				if (route == null)
+				{
+					route = processes.get(wildcardProcess);
+				}
+				found += route.length();
+			}
+			long maps = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int l = 0; l < RoutingBenchmark.LOOKUPS; l++)
+			{
+				found -= table.get(serviceNames[l], messageNames[l]).length();
+			}
+			long routing = System.nanoTime() - start;
+
+			System.out.println(String.format(
+					"round %2d: maps %6.1f ns/msg, routing table %6.1f ns/msg (%d)",
+					round,
+					(double)maps / RoutingBenchmark.LOOKUPS,
+					(double)routing / RoutingBenchmark.LOOKUPS,
+					found));
+		}
+	}
+}
@@ -17,8 +17,23 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lexa.core.data.ArrayDataArray;
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataArray;
+import lexa.core.data.DataItem;
 import lexa.core.data.DataSet;
+import lexa.core.data.DataValue;
 import lexa.core.data.config.ConfigDataSet;
 import lexa.core.data.exception.DataException;
 import lexa.core.data.io.DataReader;
@@ -30,25 +45,40 @@ import lexa.core.server.Broker;
 import lexa.core.server.connection.Connection;
 import lexa.core.server.context.Config;
 import lexa.core.server.messaging.Message;
+import lexa.core.server.messaging.MessageSource;
 import lexa.test.TestAnnotation;
 import lexa.test.TestClass;
 import lexa.test.TestResult;
 
 /**
  * Test handler for a config based server.
+ * <p>Each test submits its messages and waits for them to close; the reply to
+ * the last message is compared with the expected reply, and the status of the
+ * broker with any expected status.  A message submitted for a future reply
+ * also has the outcome of its future compared with the expected future.
+ * <p>A streamed message has its chunks read as they arrive, granting credit,
+ * unless the test holds the credit; its reply is the number of chunks read and
+ * the last of them.
  * @author william
  * @since 2017-02
  */
 @TestAnnotation(arguments = "getFileList", setUp = "setUpTestFile", tearDown = "tearDownTestFile")
 public class ServerConfig
         extends TestClass
+        implements MessageSource
 {
+    /** the longest to wait for a message to close, in seconds */
+    private static final int CLOSE_WAIT = 60;
 
     private Broker broker;
 
     private Logger logger;
     private DataSet testCase;
     private DataSet testData;
+    /** the messages closed during the current test */
+    private final Set<Message> closed = new HashSet<>();
+    /** the chunks read from each streamed message during the current test */
+    private final Map<Message, Queue<DataSet>> chunks = new ConcurrentHashMap<>();
 
     private final String testList;
     public ServerConfig(String testList)
@@ -121,6 +151,10 @@ public class ServerConfig
         String testName=(String)arg;
         this.logger.info("Test:" + testName);
         this.testCase = this.testData.getDataSet("servers").getDataSet(testName);
+        synchronized (this) {
+            this.closed.clear();
+            this.chunks.clear();
+        }
         this.logger.info("Config", this.testCase);
         DataSet functions = this.testData.getDataSet("functions");
         DataSet testFunctions = this.testCase.getDataSet("functions");
@@ -132,9 +166,12 @@ public class ServerConfig
 
         FunctionLibrary functionLibrary = new FunctionLibrary(functions);
         ConfigDataSet config = new ConfigDataSet(testCase.getDataSet("broker"));
-        this.broker = new Broker(config, functionLibrary);
+        this.broker = new Broker(config, testCase.getDataSet("broker"), functionLibrary);
         config.close();
         this.broker.start();
+        if (this.testCase.contains("reload")) {
+            this.broker.reload(this.testCase.getDataSet("reload"));
+        }
         return TestResult.result(this.broker.getStatus().isActive());
     }
 
@@ -143,32 +180,62 @@ public class ServerConfig
     {
         try
         {
-            Connection connection = broker.getConnection();
-
-            Message request = new Message(null,testCase.getDataSet("message"));
-            int id = connection.submit(request);
-            int slept = 0;
-            while (!request.hasReply()) {
-                if (slept == 1) {
-                    logger.debug("sleeping");
+            // a remote connection may lead back to the broker through its listener
+            Connection connection = this.testCase.contains("connectionName") ?
+                    this.broker.getConnection(this.testCase.getString("connectionName")) :
+                    this.broker.getConnection();
+
+            List<Message> requests = new ArrayList<>();
+            DataSet future = new ArrayDataSet();
+            if (this.testCase.contains("async")) {
+                Message request = this.newMessage(testCase.getDataSet("message"));
+                requests.add(request);
+                future = ServerConfig.outcome(connection.submitAsync(request,
+                        this.testCase.getInteger("async"), TimeUnit.MILLISECONDS));
+            } else if (this.testCase.contains("messages")) {
+                // submitted together, so they reach the process at the same time
+                DataArray messages = this.testCase.getArray("messages");
+                for (int m = 0; m < messages.size(); m++) {
+                    requests.add(this.newMessage(messages.get(m).getDataSet()));
                 }
-                logger.info("status",this.broker.getStatus().toData());
-                slept++;
-                synchronized(this)
-                {
-                    this.wait(1000);
+                connection.submitAll(requests);
+            } else {
+                int repeat = this.testCase.contains("repeat") ?
+                        this.testCase.getInteger("repeat") :
+                        1;
+                for (int r = 0; r < repeat; r++) {
+                    Message request = this.newMessage(testCase.getDataSet("message"));
+                    requests.add(request);
+                    connection.submit(request);
+                    this.waitForClose(request);
                 }
             }
-            if (slept > 1) {
-                logger.debug("woken");
+            boolean allClosed = true;
+            for (Message request : requests) {
+                allClosed &= this.waitForClose(request);
             }
 
-            DataSet reply = request.getReply();
+            DataSet reply = this.replyOf(requests.get(requests.size() - 1));
 
             logger.info("reply", reply);
-            logger.info("status",this.broker.getStatus().toData());
+            if (this.testCase.contains("wait")) {
+                Thread.sleep(this.testCase.getInteger("wait"));
+            }
+            DataSet status = this.broker.getStatus().toData();
+            logger.info("status", status);
 
-            return TestResult.result(this.testCase.getDataSet("expectedReply"), reply);
+            DataSet expectedStatus = this.testCase.contains("expectedStatus") ?
+                    this.testCase.getDataSet("expectedStatus") :
+                    new ArrayDataSet();
+            DataSet expectedFuture = this.testCase.contains("expectedFuture") ?
+                    this.testCase.getDataSet("expectedFuture") :
+                    new ArrayDataSet();
+            return TestResult.all(
+                    TestResult.result(allClosed),
+                    TestResult.result(this.testCase.getDataSet("expectedReply"), reply),
+                    TestResult.result(expectedStatus, ServerConfig.statusFor(expectedStatus, status)),
+                    TestResult.result(expectedFuture, future)
+            );
 
         } catch (InterruptedException | ProcessException ex) {
             logger.error("Exception during test", ex);
@@ -176,6 +243,236 @@ public class ServerConfig
         }
     }
 
+    /**
+     * Wait for the outcome of a future reply.
+     * @param   future
+     *          the future reply to a message.
+     * @return  the reply as {@code reply}, or the simple class name of the
+     *          exception it completed with as {@code exception}.
+     * @throws  InterruptedException
+     *          when interrupted while waiting.
+     */
+    private static DataSet outcome(CompletableFuture<DataSet> future) throws InterruptedException
+    {
+        DataSet outcome = new ArrayDataSet();
+        try {
+            outcome.put("reply", future.get(ServerConfig.CLOSE_WAIT, TimeUnit.SECONDS));
+        } catch (ExecutionException ex) {
+            outcome.put("exception", ex.getCause().getClass().getSimpleName());
+        } catch (TimeoutException ex) {
+            outcome.put("exception", "future not completed");
+        }
+        return outcome;
+    }
+
+    /**
+     * Get the reply to a message once it has closed.
+     * @param   request
+     *          the message.
+     * @return  the reply; for a streamed message the number of chunks read as
+     *          {@code chunks} and the last chunk as {@code last}.
+     */
+    private DataSet replyOf(Message request)
+    {
+        if (!request.isStreaming()) {
+            return request.getReply();
+        }
+        List<DataSet> read = new ArrayList<>(this.readChunks(request));
+        DataSet reply = new ArrayDataSet()
+                .put("chunks", read.size());
+        if (!read.isEmpty()) {
+            reply.put("last", read.get(read.size() - 1));
+        }
+        return reply;
+    }
+
+    /**
+     * Read the chunks waiting for a streamed message.
+     * <p>Reading the chunks grants the process credit to send more, so no
+     * lock is held while they are read.
+     * @param   request
+     *          the message.
+     * @return  all the chunks read from the message so far.
+     */
+    private Queue<DataSet> readChunks(Message request)
+    {
+        Queue<DataSet> read = this.chunks.computeIfAbsent(request, (Message m) -> new ConcurrentLinkedQueue<>());
+        DataSet chunk;
+        while ((chunk = request.nextChunk()) != null) {
+            read.add(chunk);
+        }
+        return read;
+    }
+
+    /**
+     * Create a message to submit for the test.
+     * <p>If the test has a {@code deadline} the message is given a deadline
+     * that many milliseconds from now; a negative period has already passed.
+     * If it has {@code streaming} the replies are streamed with that window.
+     * @param   data
+     *          the message data.
+     * @return  the message.
+     */
+    private Message newMessage(DataSet data)
+    {
+        Message request = new Message(this, data);
+        if (this.testCase.contains("deadline")) {
+            request.setDeadline(System.currentTimeMillis() + this.testCase.getInteger("deadline"));
+        }
+        if (this.testCase.contains("streaming")) {
+            request.setStreaming(this.testCase.getInteger("streaming"));
+        }
+        return request;
+    }
+
+    /**
+     * Wait for a message to close.
+     * @param   request
+     *          the message.
+     * @return  {@code true} if the message closed;
+     *          {@code false} if it was still open after {@link #CLOSE_WAIT} seconds.
+     * @throws  InterruptedException
+     *          when interrupted while waiting.
+     */
+    private synchronized boolean waitForClose(Message request) throws InterruptedException
+    {
+        int slept = 0;
+        while (!this.closed.contains(request)) {
+            if (slept == ServerConfig.CLOSE_WAIT) {
+                logger.error("message not closed", request.getReply(), null);
+                return false;
+            }
+            if (slept == 1) {
+                logger.debug("sleeping");
+            }
+            logger.info("status",this.broker.getStatus().toData());
+            slept++;
+            this.wait(1000);
+        }
+        if (slept > 1) {
+            logger.debug("woken");
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void messageClosed(Message message)
+    {
+        this.closed.add(message);
+        this.notifyAll();
+    }
+
+    @Override
+    public void replyReceived(Message message)
+    {
+        this.chunkReceived(message);
+    }
+
+    @Override
+    public void updateReceived(Message message)
+    {
+        this.chunkReceived(message);
+    }
+
+    /**
+     * Read the chunks of a streamed message as they arrive, unless the test
+     * holds the credit.
+     * <p>Other replies are read once the message closes.
+     * @param   message
+     *          the message with a new reply.
+     */
+    private void chunkReceived(Message message)
+    {
+        if (message.isStreaming() &&
+                !Boolean.TRUE.equals(this.testCase.getBoolean("holdCredit"))) {
+            this.readChunks(message);
+        }
+    }
+
+    /**
+     * Get the parts of the broker status given in an expected status.
+     * <p>The expected status lists components by name, each found anywhere in
+     * the status, with only the fields to check; a component given as
+     * {@code false} is expected to be missing.
+     * @param   expected
+     *          the expected status.
+     * @param   status
+     *          the status of the broker.
+     * @return  the matching parts of the status.
+     */
+    private static DataSet statusFor(DataSet expected, DataSet status)
+    {
+        DataSet actual = new ArrayDataSet();
+        for (DataItem item : expected) {
+            DataSet component = ServerConfig.findStatus(item.getKey(), status);
+            if (component != null && item.getObject() instanceof DataSet) {
+                actual.put(item.getKey(), ServerConfig.fieldsOf(item.getObject(), component));
+            } else {
+                actual.put(item.getKey(), component != null);
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * Find a component in the status by name.
+     * @param   name
+     *          the name of the component.
+     * @param   status
+     *          the status to search, including its children.
+     * @return  the status of the component; or {@code null} if it is not found.
+     */
+    private static DataSet findStatus(String name, DataSet status)
+    {
+        if (name.equals(status.getString("name"))) {
+            return status;
+        }
+        DataArray children = status.getArray("children");
+        if (children != null) {
+            for (DataValue child : children) {
+                DataSet found = ServerConfig.findStatus(name, child.getDataSet());
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the fields of a status that are given in an expected value.
+     * @param   expected
+     *          the expected value.
+     * @param   actual
+     *          the actual value.
+     * @return  the actual value, with only the fields that are expected.
+     */
+    private static Object fieldsOf(Object expected, Object actual)
+    {
+        if (expected instanceof DataSet && actual instanceof DataSet) {
+            DataSet fields = new ArrayDataSet();
+            for (DataItem item : (DataSet)expected) {
+                Object value = ((DataSet)actual).getObject(item.getKey());
+                if (value != null) {
+                    fields.put(item.getKey(), ServerConfig.fieldsOf(item.getObject(), value));
+                }
+            }
+            return fields;
+        }
+        if (expected instanceof DataArray && actual instanceof DataArray) {
+            DataArray expectedArray = (DataArray)expected;
+            DataArray actualArray = (DataArray)actual;
+            DataArray fields = new ArrayDataArray();
+            for (int a = 0; a < actualArray.size(); a++) {
+                fields.add(a < expectedArray.size() ?
+                        ServerConfig.fieldsOf(expectedArray.get(a).getObject(), actualArray.get(a).getObject()) :
+                        actualArray.get(a).getObject());
+            }
+            return fields;
+        }
+        return actual;
+    }
+
     public TestResult tearDownServer(Object arg)
     {
         this.broker.close();
@@ -0,0 +1,117 @@
+/*==============================================================================
+ * Lexa - Property of William Norman-Walker
+ *------------------------------------------------------------------------------
+ * WireCodecBenchmark.java (lxServer)
+ *------------------------------------------------------------------------------
+ * Author:  William Norman-Walker
+ * Created: October 2026
+ *==============================================================================
+ */
+package lxserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import lexa.core.data.ArrayDataSet;
+import lexa.core.data.DataSet;
+import lexa.core.data.exception.DataException;
+import lexa.core.data.io.DataReader;
+import lexa.core.data.io.DataWriter;
+import lexa.core.server.connection.WireCodec;
+import lexa.core.server.context.Context;
+
+/**
+ * Measures the size and cost of sending a message between brokers.
+ * <p>Compares the original text format, written by a {@link DataWriter} and read
+ * by a {@link DataReader}, against the binary {@link WireCodec}.  Each message
+ * is a request as sent by a connection: the header fields and a small request.
+ * One codec encodes and another decodes, as the two ends of a session do, so the
+ * field names are only sent in full for the first message.
+ *
+ * @author william
+ * @since 2026-10
+ */
+public class WireCodecBenchmark
+{
+	private static final int MESSAGES = 100_000;
+	private static final int ROUNDS = 10;
+
+	/**
+	 * Entry point to run the benchmark.
+	 *
+	 * @param args not used
+	 * @throws DataException when a message cannot be encoded
+	 * @throws IOException when the text format cannot be written or read
+	 */
+	public static void main(String ... args)
+			throws DataException, IOException
+	{
+		DataSet[] messages = new DataSet[WireCodecBenchmark.MESSAGES];
+		long now = System.currentTimeMillis();
+		for (int m = 0; m < WireCodecBenchmark.MESSAGES; m++)
+		{
+			messages[m] = new ArrayDataSet()
+					.put(Context.SERVICE, "echoService")
+					.put(Context.MESSAGE, "echo")
+					.put(Context.CONNECTION_ID, 3)
+					.put(Context.SOURCE_ID, m + 1)
+					.put(Context.DEADLINE, now + 30000)
+					.put(Context.REQUEST, new ArrayDataSet()
+							.put("account", "AC" + (m % 1000))
+							.put("amount", m * 1.5)
+							.put("confirm", true));
+		}
+
+		for (int round = 0; round < WireCodecBenchmark.ROUNDS; round++)
+		{
+			long textBytes = 0;
+			long start = System.nanoTime();
+			byte[][] text = new byte[WireCodecBenchmark.MESSAGES][];
+			for (int m = 0; m < WireCodecBenchmark.MESSAGES; m++)
+			{
+				ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+				new DataWriter(out).write(messages[m]);
+				text[m] = out.toByteArray();
+				textBytes += text[m].length;
+			}
+			long textEncode = System.nanoTime() - start;
+			start = System.nanoTime();
+			int found = 0;
+			for (int m = 0; m < WireCodecBenchmark.MESSAGES; m++)
+			{
+				found += new DataReader(new ByteArrayInputStream(text[m])).read().size();
+			}
+			long textDecode = System.nanoTime() - start;
+
+			WireCodec sender = new WireCodec();
+			WireCodec receiver = new WireCodec();
+			long wireBytes = 0;
+			start = System.nanoTime();
+			byte[][] wire = new byte[WireCodecBenchmark.MESSAGES][];
+			for (int m = 0; m < WireCodecBenchmark.MESSAGES; m++)
+			{
+				wire[m] = sender.encode(messages[m]);
+				wireBytes += wire[m].length;
+			}
+			long wireEncode = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int m = 0; m < WireCodecBenchmark.MESSAGES; m++)
+			{
+				found -= receiver.decode(wire[m]).size();
+			}
+			long wireDecode = System.nanoTime() - start;
+
+			System.out.println(String.format(
+					"round %2d: text %5.1f B/msg encode %6.1f decode %6.1f ns/msg, " +
+					"wire %5.1f B/msg encode %6.1f decode %6.1f ns/msg (%d)",
+					round,
+					(double)textBytes / WireCodecBenchmark.MESSAGES,
+					(double)textEncode / WireCodecBenchmark.MESSAGES,
+					(double)textDecode / WireCodecBenchmark.MESSAGES,
+					(double)wireBytes / WireCodecBenchmark.MESSAGES,
+					(double)wireEncode / WireCodecBenchmark.MESSAGES,
+					(double)wireDecode / WireCodecBenchmark.MESSAGES,
+					found));
+		}
+	}
+}